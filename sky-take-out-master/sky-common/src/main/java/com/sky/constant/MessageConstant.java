@@ -24,10 +24,16 @@ public class MessageConstant {
     public static final String DISH_BE_RELATED_BY_SETMEAL = "当前菜品关联了套餐,不能删除";
     public static final String ORDER_STATUS_ERROR = "订单状态错误";
     public static final String ORDER_NOT_FOUND = "订单不存在";
+    public static final String ORDER_CURSOR_INVALID = "分页游标无效";
     public static final String ORDER_REFUND_ERROR = "订单退款失败";
     public static final String ORDER_CANCELLED_BY_USER = "用户取消订单";
     public static final String ORDER_REJECTION_REASON_IS_NULL = "商家拒单原因为空";
     public static final String ORDER_TIMEOUT = "订单超时,自动取消";
     public static final String ORDER_DELIVERY_OUT_OF_RANGE = "订单超出配送范围";
     public static final String BAIDU_API_ERROR = "百度地图接口调用失败";
+    public static final String REPORT_DATE_RANGE_ERROR = "报表日期区间错误";
+    public static final String REPORT_EXPORT_FAILED = "报表导出失败";
+    public static final String REPORT_EXPORT_BUSY = "导出任务过多,请稍后再试";
+    public static final String REPORT_EXPORT_JOB_NOT_FOUND = "导出任务不存在或已过期";
+    public static final String REPORT_EXPORT_JOB_NOT_FINISHED = "导出任务尚未完成";
 }
@@ -4,5 +4,35 @@ public class RedisConstent {
     //redis key
     public static final String USER_DISH_LIST_KEY_PREFIX = "dish_";
 
+    //分类菜品缓存版本号,后接分类id,修改分类下的菜品后递增
+    public static final String DISH_VERSION_KEY_PREFIX = "dish_version_";
+
+    //分类菜品缓存key的集合,后接分类id,清理分类缓存时直接删除集合中的key
+    public static final String DISH_KEYS_KEY_PREFIX = "dish_keys_";
+
+    //分类菜品缓存加载锁,后接分类id,缓存未命中时只有一个实例查询数据库
+    public static final String DISH_LOAD_LOCK_KEY_PREFIX = "dish_lock_";
+
+    //旧版本菜品缓存已清理的标记
+    public static final String DISH_LEGACY_CLEANUP_KEY = "dish_legacy_cleanup_done";
+
+    //菜品缓存失效通知频道,消息为分类id
+    public static final String DISH_CACHE_CHANNEL = "sky:cache:dish";
+
     public static final String SHOP_STATUS_KEY = "SHOP_STATUS";
+
+    //订单号生成器节点id租约,后接节点id,值为占用该节点id的实例
+    public static final String SNOWFLAKE_NODE_KEY_PREFIX = "snowflake_node:";
+
+    //进行中订单的状态计数,hash,field为订单状态,value为订单数
+    public static final String ORDER_STATUS_COUNT_ACTIVE_KEY = "order_status_count:active";
+
+    //某一天下单的订单的状态计数,后接日期
+    public static final String ORDER_STATUS_COUNT_DAY_KEY_PREFIX = "order_status_count:day:";
+
+    //待支付订单的超时时间,有序集合,成员为订单id,分数为超时时间戳(毫秒)
+    public static final String ORDER_TIMEOUT_KEY = "order_timeout";
+
+    //定时任务锁,后接任务名称
+    public static final String SCHEDULED_LOCK_KEY_PREFIX = "scheduled_lock:";
 }
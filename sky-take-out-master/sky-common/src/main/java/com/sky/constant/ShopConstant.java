@@ -11,5 +11,8 @@ public class ShopConstant {
         //配送范围(单位米)
         public static final Integer DELIVERY_RANGE_METERS = 5000;
 
+        //默认店铺id,当前系统只有一个店铺
+        public static final Long DEFAULT_SHOP_ID = 1L;
+
 }
 
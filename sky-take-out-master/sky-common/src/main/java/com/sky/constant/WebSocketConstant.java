@@ -6,4 +6,7 @@ public class WebSocketConstant {
     //催单提醒
     public static final Integer REMIND_ORDER_TYPE = 2;
 
+    //多个实例之间转发消息的redis频道
+    public static final String BROADCAST_CHANNEL = "sky:websocket:broadcast";
+
 }
@@ -0,0 +1,45 @@
+package com.sky.context;
+
+/**
+ * 当前线程正在执行的定时任务持有的锁
+ */
+public class ScheduledLockContext {
+
+    public static ThreadLocal<Lease> threadLocal = new ThreadLocal<>();
+
+    public static void setLease(Lease lease) {
+        threadLocal.set(lease);
+    }
+
+    public static Lease getLease() {
+        return threadLocal.get();
+    }
+
+    public static void removeLease() {
+        threadLocal.remove();
+    }
+
+    /**
+     * 当前线程是否仍持有锁,没有在锁中执行时返回true
+     * @return
+     */
+    public static boolean isHeld() {
+        Lease lease = threadLocal.get();
+        return lease == null || lease.isHeld();
+    }
+
+    /**
+     * 锁的租约,续期失败后标记为失效,任务应尽快停止
+     */
+    public static class Lease {
+        private volatile boolean held = true;
+
+        public boolean isHeld() {
+            return held;
+        }
+
+        public void lost() {
+            held = false;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.sky.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "sky.report")
+@Data
+public class ReportProperties {
+
+    /**
+     * 单次导出营业数据报表允许的最大天数
+     */
+    private int exportMaxDays = 366;
+
+    /**
+     * 异步导出任务相关配置
+     */
+    private int exportThreads = 2; //执行导出任务的线程数
+    private int exportQueueCapacity = 16; //排队等待的导出任务数上限
+    private String exportDir = System.getProperty("java.io.tmpdir") + "/sky-report-export"; //导出文件存放目录
+    private long exportFileTtlMinutes = 60; //导出文件保留时间(分钟)
+
+}
@@ -19,4 +19,11 @@ public class PageResult implements Serializable {
 
     private List records; //当前页数据集合
 
+    private String nextCursor; //游标分页时下一页的游标,没有下一页时为null
+
+    public PageResult(long total, List records) {
+        this.total = total;
+        this.records = records;
+    }
+
 }
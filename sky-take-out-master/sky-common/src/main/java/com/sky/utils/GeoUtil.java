@@ -0,0 +1,103 @@
+package com.sky.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 经纬度计算工具类
+ */
+public class GeoUtil {
+
+    //地球平均半径(单位米)
+    static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * 经纬度坐标
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Location implements Serializable {
+        //纬度
+        private double lat;
+        //经度
+        private double lng;
+
+        /**
+         * 解析"纬度,经度"格式的坐标
+         * @param text
+         * @return
+         */
+        public static Location parse(String text) {
+            String[] parts = text.split(",");
+            return new Location(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+        }
+
+        /**
+         * 转成百度地图api使用的"纬度,经度"格式
+         * @return
+         */
+        @Override
+        public String toString() {
+            return lat + "," + lng;
+        }
+    }
+
+    /**
+     * 使用haversine公式计算两个坐标之间的直线距离
+     * @param from
+     * @param to
+     * @return 距离(单位米)
+     */
+    public static double distance(Location from, Location to) {
+        double lat1 = Math.toRadians(from.getLat());
+        double lat2 = Math.toRadians(to.getLat());
+        double deltaLat = lat2 - lat1;
+        double deltaLng = Math.toRadians(to.getLng() - from.getLng());
+        double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2)
+            + Math.cos(lat1) * Math.cos(lat2) * Math.sin(deltaLng / 2) * Math.sin(deltaLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * 使用射线法判断坐标是否在多边形范围内
+     * @param polygon 多边形顶点,按顺序排列
+     * @param point
+     * @return
+     */
+    public static boolean contains(List<Location> polygon, Location point) {
+        boolean inside = false;
+        for (int i = 0, j = polygon.size() - 1; i < polygon.size(); j = i++) {
+            Location a = polygon.get(i);
+            Location b = polygon.get(j);
+            if ((a.getLat() > point.getLat()) != (b.getLat() > point.getLat())
+                && point.getLng() < (b.getLng() - a.getLng()) * (point.getLat() - a.getLat()) / (b.getLat() - a.getLat()) + a.getLng()) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * 解析"纬度,经度;纬度,经度;..."格式的多边形
+     * @param text
+     * @return 空字符串返回空列表
+     */
+    public static List<Location> parsePolygon(String text) {
+        List<Location> polygon = new ArrayList<>();
+        if (text == null || text.trim().isEmpty()) {
+            return polygon;
+        }
+        for (String point : text.split(";")) {
+            if (!point.trim().isEmpty()) {
+                polygon.add(Location.parse(point));
+            }
+        }
+        return polygon;
+    }
+}
@@ -1,17 +1,29 @@
 package com.sky.utils;
 
 import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpException;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
@@ -19,14 +31,61 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Http工具类
+ * 所有请求共用一个带连接池的HttpClient,复用keep-alive连接,避免每次请求都重新建立连接和TLS握手
  */
+@Slf4j
 public class HttpClientUtil {
 
     static final  int TIMEOUT_MSEC = 5 * 1000;
 
+    //连接池最大连接数和每个域名的最大连接数
+    static final int MAX_TOTAL_CONNECTIONS = 200;
+    static final int MAX_CONNECTIONS_PER_ROUTE = 50;
+    //服务端没有返回Keep-Alive时连接的保持时间
+    static final long DEFAULT_KEEP_ALIVE_MSEC = 30 * 1000;
+    //空闲连接的回收时间
+    static final long IDLE_EVICT_MSEC = 30 * 1000;
+    //连接池已满的警告日志最短间隔
+    static final long SATURATED_WARN_INTERVAL_MSEC = 60 * 1000;
+
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = new PoolingHttpClientConnectionManager();
+    private static final CloseableHttpClient HTTP_CLIENT;
+    //请求时连接池已满、需要排队等待连接的次数
+    private static final AtomicLong SATURATED_COUNT = new AtomicLong();
+    //上一次输出连接池已满警告的时间
+    private static final AtomicLong LAST_SATURATED_WARN_TIME = new AtomicLong();
+    //与HttpClient默认的路由规则一致,用于查询请求所在域名的连接池状态
+    private static final HttpRoutePlanner ROUTE_PLANNER = new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE);
+
+    static {
+        CONNECTION_MANAGER.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        CONNECTION_MANAGER.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        //复用空闲超过2秒的连接前先检查连接是否可用
+        CONNECTION_MANAGER.setValidateAfterInactivity(2000);
+        HTTP_CLIENT = HttpClients.custom()
+                .setConnectionManager(CONNECTION_MANAGER)
+                .setDefaultRequestConfig(builderRequestConfig())
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? keepAlive : DEFAULT_KEEP_ALIVE_MSEC;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_EVICT_MSEC, TimeUnit.MILLISECONDS)
+                .build();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                HTTP_CLIENT.close();
+            } catch (IOException e) {
+                log.warn("关闭HttpClient失败", e);
+            }
+        }));
+    }
+
     /**
      * 发送GET方式请求
      * @param url
@@ -34,9 +93,6 @@ public class HttpClientUtil {
      * @return
      */
     public static String doGet(String url,Map<String,String> paramMap){
-        // 创建Httpclient对象
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-
         String result = "";
         CloseableHttpResponse response = null;
 
@@ -53,21 +109,19 @@ public class HttpClientUtil {
             HttpGet httpGet = new HttpGet(uri);
 
             //发送请求
-            response = httpClient.execute(httpGet);
+            response = execute(httpGet);
 
             //判断响应状态
             if(response.getStatusLine().getStatusCode() == 200){
                 result = EntityUtils.toString(response.getEntity(),"UTF-8");
+            } else {
+                //读完响应体,连接才能放回连接池
+                EntityUtils.consume(response.getEntity());
             }
         }catch (Exception e){
-            e.printStackTrace();
+            log.error("GET请求失败：{}", url, e);
         }finally {
-            try {
-                response.close();
-                httpClient.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            close(response);
         }
 
         return result;
@@ -81,8 +135,6 @@ public class HttpClientUtil {
      * @throws IOException
      */
     public static String doPost(String url, Map<String, String> paramMap) throws IOException {
-        // 创建Httpclient对象
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         CloseableHttpResponse response = null;
         String resultString;
 
@@ -101,20 +153,12 @@ public class HttpClientUtil {
                 httpPost.setEntity(entity);
             }
 
-            httpPost.setConfig(builderRequestConfig());
-
             // 执行http请求
-            response = httpClient.execute(httpPost);
+            response = execute(httpPost);
 
             resultString = EntityUtils.toString(response.getEntity(), "UTF-8");
-        } catch (Exception e) {
-            throw e;
         } finally {
-            try {
-                response.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            close(response);
         }
 
         return resultString;
@@ -128,8 +172,6 @@ public class HttpClientUtil {
      * @throws IOException
      */
     public static String doPost4Json(String url, Map<String, String> paramMap) throws IOException {
-        // 创建Httpclient对象
-        CloseableHttpClient httpClient = HttpClients.createDefault();
         CloseableHttpResponse response = null;
         String resultString = "";
 
@@ -151,24 +193,87 @@ public class HttpClientUtil {
                 httpPost.setEntity(entity);
             }
 
-            httpPost.setConfig(builderRequestConfig());
-
             // 执行http请求
-            response = httpClient.execute(httpPost);
+            response = execute(httpPost);
 
             resultString = EntityUtils.toString(response.getEntity(), "UTF-8");
-        } catch (Exception e) {
-            throw e;
         } finally {
-            try {
-                response.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            close(response);
         }
 
         return resultString;
     }
+
+    /**
+     * 获取连接池状态,包括使用中、空闲、等待中的连接数
+     * @return
+     */
+    public static PoolStats getPoolStats() {
+        return CONNECTION_MANAGER.getTotalStats();
+    }
+
+    /**
+     * 获取连接池已满、请求需要等待连接的次数
+     * @return
+     */
+    public static long getSaturatedCount() {
+        return SATURATED_COUNT.get();
+    }
+
+    /**
+     * 使用共享的HttpClient执行请求,并记录连接池是否已满
+     * @param request
+     * @return
+     * @throws IOException
+     */
+    private static CloseableHttpResponse execute(HttpRequestBase request) throws IOException {
+        checkSaturated(request);
+        return HTTP_CLIENT.execute(request);
+    }
+
+    /**
+     * 请求所在域名的连接数或连接池总连接数达到上限时,请求需要排队等待连接
+     * 每次都累加次数,警告日志按间隔输出,避免连接池持续满载时刷屏
+     * @param request
+     */
+    private static void checkSaturated(HttpRequestBase request) {
+        PoolStats routeStats;
+        try {
+            HttpRoute route = ROUTE_PLANNER.determineRoute(URIUtils.extractHost(request.getURI()), request, HttpClientContext.create());
+            routeStats = CONNECTION_MANAGER.getStats(route);
+        } catch (HttpException | RuntimeException e) {
+            //无法确定路由时由执行请求时报错
+            return;
+        }
+        PoolStats totalStats = CONNECTION_MANAGER.getTotalStats();
+        if (routeStats.getLeased() < routeStats.getMax() && routeStats.getPending() == 0
+            && totalStats.getLeased() < totalStats.getMax()) {
+            return;
+        }
+        long count = SATURATED_COUNT.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long lastWarnTime = LAST_SATURATED_WARN_TIME.get();
+        if (now - lastWarnTime >= SATURATED_WARN_INTERVAL_MSEC && LAST_SATURATED_WARN_TIME.compareAndSet(lastWarnTime, now)) {
+            log.warn("Http连接池已满,请求需要等待连接：{},域名连接状态：{},连接池状态：{},累计次数：{}",
+                request.getURI().getHost(), routeStats, totalStats, count);
+        }
+    }
+
+    /**
+     * 关闭响应,连接放回连接池而不是关闭
+     * @param response
+     */
+    private static void close(CloseableHttpResponse response) {
+        if (response == null) {
+            return;
+        }
+        try {
+            response.close();
+        } catch (IOException e) {
+            log.warn("关闭Http响应失败", e);
+        }
+    }
+
     private static RequestConfig builderRequestConfig() {
         return RequestConfig.custom()
                 .setConnectTimeout(TIMEOUT_MSEC)
@@ -5,8 +5,10 @@ import com.alibaba.fastjson.JSONObject;
 import com.sky.properties.WeChatProperties;
 import com.wechat.pay.contrib.apache.httpclient.WechatPayHttpClientBuilder;
 import com.wechat.pay.contrib.apache.httpclient.util.PemUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -19,7 +21,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.security.PrivateKey;
 import java.security.Signature;
@@ -28,11 +30,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import javax.annotation.PreDestroy;
 
 /**
  * 微信支付工具类
  */
 @Component
+@Slf4j
 public class WeChatPayUtil {
 
     //微信支付下单接口地址
@@ -44,31 +48,127 @@ public class WeChatPayUtil {
     @Autowired
     private WeChatProperties weChatProperties;
 
+    //检查证书文件是否更新的间隔
+    static final long RELOAD_CHECK_INTERVAL_MSEC = 60 * 1000;
+    //连接池最大连接数
+    static final int MAX_CONNECTIONS = 50;
+    static final int TIMEOUT_MSEC = 10 * 1000;
+
+    //缓存的商户私钥和客户端,证书文件更新后重新加载
+    private volatile PrivateKey merchantPrivateKey;
+    private volatile CloseableHttpClient httpClient;
+    //上一次加载的客户端,下一次重新加载或应用关闭时再关闭,避免中断正在进行的请求
+    private CloseableHttpClient retiredClient;
+    //加载时私钥和平台证书文件的修改时间
+    private long privateKeyLastModified;
+    private long certLastModified;
+    private volatile long lastCheckTime;
+
     /**
-     * 获取调用微信接口的客户端工具对象
+     * 获取调用微信接口的客户端工具对象,第一次调用时创建,证书文件更新后重新创建
      *
      * @return
      */
-    private CloseableHttpClient getClient() {
-        PrivateKey merchantPrivateKey = null;
-        try {
-            //merchantPrivateKey商户API私钥，如何加载商户API私钥请看常见问题
-            merchantPrivateKey = PemUtil.loadPrivateKey(new FileInputStream(new File(weChatProperties.getPrivateKeyFilePath())));
+    private CloseableHttpClient getClient() throws IOException {
+        reloadIfChanged();
+        return httpClient;
+    }
+
+    /**
+     * 获取缓存的商户私钥
+     *
+     * @return
+     */
+    private PrivateKey getMerchantPrivateKey() throws IOException {
+        reloadIfChanged();
+        return merchantPrivateKey;
+    }
+
+    /**
+     * 未加载或证书文件已更新时重新加载私钥、证书和客户端
+     */
+    private void reloadIfChanged() throws IOException {
+        long now = System.currentTimeMillis();
+        if (httpClient != null && now - lastCheckTime < RELOAD_CHECK_INTERVAL_MSEC) {
+            return;
+        }
+        synchronized (this) {
+            if (httpClient != null && now - lastCheckTime < RELOAD_CHECK_INTERVAL_MSEC) {
+                return;
+            }
+            File privateKeyFile = new File(weChatProperties.getPrivateKeyFilePath());
+            File certFile = new File(weChatProperties.getWeChatPayCertFilePath());
+            if (httpClient == null) {
+                load(privateKeyFile, certFile);
+            } else if (privateKeyFile.lastModified() != privateKeyLastModified
+                || certFile.lastModified() != certLastModified) {
+                try {
+                    load(privateKeyFile, certFile);
+                } catch (IOException | RuntimeException e) {
+                    //文件可能正在替换,继续使用已加载的私钥和客户端,下一次调用时重试
+                    log.error("重新加载微信支付商户私钥和平台证书失败,继续使用已加载的证书", e);
+                    return;
+                }
+            }
+            lastCheckTime = now;
+        }
+    }
+
+    /**
+     * 加载私钥和平台证书,创建带连接池的签名客户端
+     * @param privateKeyFile
+     * @param certFile
+     */
+    private void load(File privateKeyFile, File certFile) throws IOException {
+        long privateKeyModified = privateKeyFile.lastModified();
+        long certModified = certFile.lastModified();
+        PrivateKey privateKey;
+        X509Certificate x509Certificate;
+        //merchantPrivateKey商户API私钥，如何加载商户API私钥请看常见问题
+        try (FileInputStream privateKeyInput = new FileInputStream(privateKeyFile);
+             FileInputStream certInput = new FileInputStream(certFile)) {
+            privateKey = PemUtil.loadPrivateKey(privateKeyInput);
             //加载平台证书文件
-            X509Certificate x509Certificate = PemUtil.loadCertificate(new FileInputStream(new File(weChatProperties.getWeChatPayCertFilePath())));
-            //wechatPayCertificates微信支付平台证书列表。你也可以使用后面章节提到的“定时更新平台证书功能”，而不需要关心平台证书的来龙去脉
-            List<X509Certificate> wechatPayCertificates = Arrays.asList(x509Certificate);
-
-            WechatPayHttpClientBuilder builder = WechatPayHttpClientBuilder.create()
-                    .withMerchant(weChatProperties.getMchid(), weChatProperties.getMchSerialNo(), merchantPrivateKey)
-                    .withWechatPay(wechatPayCertificates);
-
-            // 通过WechatPayHttpClientBuilder构造的HttpClient，会自动的处理签名和验签
-            CloseableHttpClient httpClient = builder.build();
-            return httpClient;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
+            x509Certificate = PemUtil.loadCertificate(certInput);
+        }
+        //wechatPayCertificates微信支付平台证书列表。你也可以使用后面章节提到的“定时更新平台证书功能”，而不需要关心平台证书的来龙去脉
+        List<X509Certificate> wechatPayCertificates = Arrays.asList(x509Certificate);
+
+        // 通过WechatPayHttpClientBuilder构造的HttpClient，会自动的处理签名和验签
+        CloseableHttpClient client = WechatPayHttpClientBuilder.create()
+                .withMerchant(weChatProperties.getMchid(), weChatProperties.getMchSerialNo(), privateKey)
+                .withWechatPay(wechatPayCertificates)
+                .setMaxConnTotal(MAX_CONNECTIONS)
+                .setMaxConnPerRoute(MAX_CONNECTIONS)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(TIMEOUT_MSEC)
+                        .setConnectionRequestTimeout(TIMEOUT_MSEC)
+                        .setSocketTimeout(TIMEOUT_MSEC).build())
+                .build();
+
+        closeQuietly(retiredClient);
+        retiredClient = httpClient;
+        merchantPrivateKey = privateKey;
+        httpClient = client;
+        privateKeyLastModified = privateKeyModified;
+        certLastModified = certModified;
+        log.info("微信支付商户私钥和平台证书加载完成");
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        closeQuietly(retiredClient);
+        closeQuietly(httpClient);
+    }
+
+    private static void closeQuietly(CloseableHttpClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.warn("关闭微信支付客户端失败", e);
         }
     }
 
@@ -88,13 +188,9 @@ public class WeChatPayUtil {
         httpPost.addHeader("Wechatpay-Serial", weChatProperties.getMchSerialNo());
         httpPost.setEntity(new StringEntity(body, "UTF-8"));
 
-        CloseableHttpResponse response = httpClient.execute(httpPost);
-        try {
+        try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
             String bodyAsString = EntityUtils.toString(response.getEntity());
             return bodyAsString;
-        } finally {
-            httpClient.close();
-            response.close();
         }
     }
 
@@ -112,13 +208,9 @@ public class WeChatPayUtil {
         httpGet.addHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
         httpGet.addHeader("Wechatpay-Serial", weChatProperties.getMchSerialNo());
 
-        CloseableHttpResponse response = httpClient.execute(httpGet);
-        try {
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
             String bodyAsString = EntityUtils.toString(response.getEntity());
             return bodyAsString;
-        } finally {
-            httpClient.close();
-            response.close();
         }
     }
 
@@ -188,7 +280,7 @@ public class WeChatPayUtil {
             byte[] message = signMessage.getBytes();
 
             Signature signature = Signature.getInstance("SHA256withRSA");
-            signature.initSign(PemUtil.loadPrivateKey(new FileInputStream(new File(weChatProperties.getPrivateKeyFilePath()))));
+            signature.initSign(getMerchantPrivateKey());
             signature.update(message);
             String packageSign = Base64.getEncoder().encodeToString(signature.sign());
 
@@ -27,4 +27,18 @@ public class OrdersPageQueryDTO implements Serializable {
 
     private Long userId;
 
+    //反转后的手机号尾号,按尾号查询时由服务端设置
+    private String phoneReversed;
+
+    //游标分页:上一页返回的nextCursor,不为空时查询游标之后的pageSize条订单,忽略page
+    private String cursor;
+
+    //由cursor解析出的上一页最后一条订单的下单时间和id,由服务端设置
+    private LocalDateTime cursorTime;
+
+    private Long cursorId;
+
+    //是否查询总记录数,为false时不执行count查询,返回的total为-1;游标分页时默认不查询,为true时total为游标之后的记录数
+    private Boolean count;
+
 }
@@ -0,0 +1,43 @@
+package com.sky.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 订单状态转换,每种转换只允许从指定的状态修改为目标状态
+ */
+public enum OrderTransition {
+
+    //支付成功,超时取消后才到达的支付回调不能恢复订单
+    PAY(Orders.TO_BE_CONFIRMED, Orders.PENDING_PAYMENT),
+    //商家接单
+    CONFIRM(Orders.CONFIRMED, Orders.TO_BE_CONFIRMED),
+    //商家拒单
+    REJECT(Orders.CANCELLED, Orders.TO_BE_CONFIRMED),
+    //商家派送
+    DELIVER(Orders.DELIVERY_IN_PROGRESS, Orders.CONFIRMED),
+    //完成订单
+    COMPLETE(Orders.COMPLETED, Orders.DELIVERY_IN_PROGRESS),
+    //用户取消,商家接单以后不能取消
+    USER_CANCEL(Orders.CANCELLED, Orders.PENDING_PAYMENT, Orders.TO_BE_CONFIRMED),
+    //商家取消,已经取消的订单不能重复取消,已完成的订单已计入营业额,不能取消
+    ADMIN_CANCEL(Orders.CANCELLED, Orders.PENDING_PAYMENT, Orders.TO_BE_CONFIRMED, Orders.CONFIRMED,
+        Orders.DELIVERY_IN_PROGRESS);
+
+    private final Integer toStatus;
+    private final List<Integer> fromStatuses;
+
+    OrderTransition(Integer toStatus, Integer... fromStatuses) {
+        this.toStatus = toStatus;
+        this.fromStatuses = Collections.unmodifiableList(Arrays.asList(fromStatuses));
+    }
+
+    public Integer getToStatus() {
+        return toStatus;
+    }
+
+    public List<Integer> getFromStatuses() {
+        return fromStatuses;
+    }
+}
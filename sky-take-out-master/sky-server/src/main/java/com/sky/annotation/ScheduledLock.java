@@ -0,0 +1,23 @@
+package com.sky.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 定时任务分布式锁,多个实例中同一时间只有获得锁的实例执行任务
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ScheduledLock {
+    // 任务名称,不同任务使用不同的锁
+    String value();
+
+    // 锁的租期(毫秒),任务执行期间自动续期
+    long leaseMillis() default 60000;
+
+    // 从获得锁开始最少持有的时间(毫秒),任务提前结束时锁保留到这个时间,
+    // 避免定时触发稍晚的实例在任务结束后再次获得锁重复执行,应大于各实例的时钟偏差且小于执行间隔
+    long minHoldMillis() default 30000;
+}
@@ -0,0 +1,164 @@
+package com.sky.aspect;
+
+import com.sky.annotation.ScheduledLock;
+import com.sky.constant.RedisConstent;
+import com.sky.context.ScheduledLockContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+/**
+ * 自定义切面实现定时任务的分布式锁
+ * 获得锁的实例执行任务并定期续期,其他实例跳过本次执行
+ * 任务结束后锁至少保留到最短持有时间,同一次触发不会被其他实例重复执行
+ */
+@Aspect
+@Component
+@Slf4j
+public class ScheduledLockAspect {
+
+    //锁仍属于自己时续期
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+        Long.class);
+    //锁仍属于自己时释放
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    //各任务获得锁执行的次数
+    private final Map<String, AtomicLong> acquiredCount = new ConcurrentHashMap<>();
+    //各任务没有获得锁跳过的次数
+    private final Map<String, AtomicLong> skippedCount = new ConcurrentHashMap<>();
+    //各任务执行期间续期失败的次数
+    private final Map<String, AtomicLong> lostCount = new ConcurrentHashMap<>();
+    private ScheduledExecutorService renewExecutor;
+
+    @PostConstruct
+    public void init() {
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "scheduled-lock-renew");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        renewExecutor.shutdownNow();
+    }
+
+    /**
+     * 环绕通知,获得锁后执行定时任务,执行完成后释放锁
+     */
+    @Around("@annotation(scheduledLock)")
+    public Object lock(ProceedingJoinPoint joinPoint, ScheduledLock scheduledLock) throws Throwable {
+        String name = scheduledLock.value();
+        String lockKey = RedisConstent.SCHEDULED_LOCK_KEY_PREFIX + name;
+        long leaseMillis = scheduledLock.leaseMillis();
+        //锁的值区分实例和每次执行,只能续期和释放自己获得的锁
+        String value = nodeId + ":" + UUID.randomUUID();
+        long acquiredAt = System.currentTimeMillis();
+        try {
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, value, leaseMillis, TimeUnit.MILLISECONDS);
+            if (!Boolean.TRUE.equals(acquired)) {
+                long skipped = increment(skippedCount, name);
+                log.debug("定时任务{}已在其他实例执行,跳过本次执行,累计跳过{}次", name, skipped);
+                return null;
+            }
+        } catch (Exception e) {
+            //无法确认其他实例是否在执行,跳过本次执行
+            increment(skippedCount, name);
+            log.error("定时任务{}获取锁失败,跳过本次执行", name, e);
+            return null;
+        }
+        long acquired = increment(acquiredCount, name);
+        log.info("定时任务{}获得锁,累计执行{}次", name, acquired);
+
+        ScheduledLockContext.Lease lease = new ScheduledLockContext.Lease();
+        long renewInterval = leaseMillis / 3;
+        ScheduledFuture<?> renewal = renewExecutor.scheduleWithFixedDelay(
+            () -> renew(name, lockKey, value, leaseMillis, lease), renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        ScheduledLockContext.setLease(lease);
+        try {
+            return joinPoint.proceed();
+        } finally {
+            ScheduledLockContext.removeLease();
+            renewal.cancel(false);
+            release(name, lockKey, value, acquiredAt, scheduledLock.minHoldMillis());
+        }
+    }
+
+    /**
+     * 任务结束后释放锁,没有达到最短持有时间时把锁的过期时间改为剩余的持有时间
+     */
+    private void release(String name, String lockKey, String value, long acquiredAt, long minHoldMillis) {
+        long remaining = acquiredAt + minHoldMillis - System.currentTimeMillis();
+        try {
+            if (remaining > 0) {
+                stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(lockKey), value, String.valueOf(remaining));
+            } else {
+                stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(lockKey), value);
+            }
+        } catch (Exception e) {
+            //释放失败时锁在租期结束后自动过期
+            log.warn("定时任务{}释放锁失败", name, e);
+        }
+    }
+
+    /**
+     * 各任务获得锁、跳过和续期失败的次数
+     * @return
+     */
+    public Map<String, Map<String, Long>> getMetrics() {
+        Map<String, Map<String, Long>> metrics = new HashMap<>();
+        acquiredCount.forEach((name, count) -> metrics.computeIfAbsent(name, k -> new HashMap<>()).put("acquired", count.get()));
+        skippedCount.forEach((name, count) -> metrics.computeIfAbsent(name, k -> new HashMap<>()).put("skipped", count.get()));
+        lostCount.forEach((name, count) -> metrics.computeIfAbsent(name, k -> new HashMap<>()).put("lost", count.get()));
+        return metrics;
+    }
+
+    private void renew(String name, String lockKey, String value, long leaseMillis, ScheduledLockContext.Lease lease) {
+        if (!lease.isHeld()) {
+            return;
+        }
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(lockKey), value, String.valueOf(leaseMillis));
+            if (renewed == null || renewed == 0) {
+                //锁已经过期或被其他实例获得,通知任务停止
+                lease.lost();
+                increment(lostCount, name);
+                log.warn("定时任务{}的锁已失效", name);
+            }
+        } catch (Exception e) {
+            //暂时无法续期,锁未过期前下次续期仍可能成功
+            log.warn("定时任务{}续期失败", name, e);
+        }
+    }
+
+    private long increment(Map<String, AtomicLong> countMap, String name) {
+        return countMap.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+    }
+}
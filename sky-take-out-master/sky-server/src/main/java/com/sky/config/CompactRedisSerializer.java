@@ -0,0 +1,166 @@
+package com.sky.config;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis值序列化器:jackson smile二进制格式,超过阈值的数据再做deflate压缩
+ * 数据第一个字节标记格式,读取时兼容之前jdk序列化写入的数据
+ * 根对象为Long等final类型时不写类型信息,读取时按数值大小还原为Integer或Long
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    //格式标记,jdk序列化数据以0xAC 0xED开头,不会与之冲突
+    private static final byte FORMAT_SMILE = 0x01;
+    private static final byte FORMAT_SMILE_DEFLATE = 0x02;
+    private static final byte JDK_MAGIC = (byte) 0xAC;
+
+    //小于阈值的数据压缩收益低,直接存储
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+
+    private final ObjectMapper objectMapper;
+    private final int compressThreshold;
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    public CompactRedisSerializer() {
+        this(DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    public CompactRedisSerializer(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        //只允许反序列化项目和jdk常用类型,避免任意类型注入
+        BasicPolymorphicTypeValidator typeValidator = BasicPolymorphicTypeValidator.builder()
+                .allowIfSubType("com.sky.")
+                .allowIfSubType("java.util.")
+                .allowIfSubType("java.math.")
+                .allowIfSubType("java.time.")
+                .build();
+        this.objectMapper = new ObjectMapper(new SmileFactory());
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        this.objectMapper.activateDefaultTyping(typeValidator, ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(value);
+        } catch (Exception e) {
+            throw new SerializationException("序列化redis数据失败", e);
+        }
+        if (body.length < compressThreshold) {
+            return withFormat(FORMAT_SMILE, body, body.length);
+        }
+        return compress(body);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        switch (bytes[0]) {
+            case FORMAT_SMILE:
+                return read(bytes, 1, bytes.length - 1);
+            case FORMAT_SMILE_DEFLATE:
+                byte[] body = decompress(bytes);
+                return read(body, 0, body.length);
+            case JDK_MAGIC:
+                return jdkSerializer.deserialize(bytes);
+            default:
+                throw new SerializationException("无法识别的redis数据格式：" + bytes[0]);
+        }
+    }
+
+    private Object read(byte[] bytes, int offset, int length) {
+        try {
+            return objectMapper.readValue(bytes, offset, length, Object.class);
+        } catch (Exception e) {
+            throw new SerializationException("反序列化redis数据失败", e);
+        }
+    }
+
+    /**
+     * 压缩数据,格式为:标记字节 + 4字节原始长度 + deflate数据
+     * @param body
+     * @return
+     */
+    private byte[] compress(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 8);
+            out.write(FORMAT_SMILE_DEFLATE);
+            out.write(body.length >>> 24);
+            out.write(body.length >>> 16);
+            out.write(body.length >>> 8);
+            out.write(body.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            //压缩后没有变小则按原始数据存储
+            if (out.size() >= body.length + 1) {
+                return withFormat(FORMAT_SMILE, body, body.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] decompress(byte[] bytes) {
+        if (bytes.length < 5) {
+            throw new SerializationException("压缩数据长度错误");
+        }
+        int length = ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, 5, bytes.length - 5);
+            byte[] body = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(body, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new SerializationException("压缩数据不完整");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new SerializationException("解压redis数据失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] withFormat(byte format, byte[] body, int length) {
+        byte[] bytes = new byte[length + 1];
+        bytes[0] = format;
+        System.arraycopy(body, 0, bytes, 1, length);
+        return bytes;
+    }
+}
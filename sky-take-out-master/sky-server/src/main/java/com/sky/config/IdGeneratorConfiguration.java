@@ -0,0 +1,44 @@
+package com.sky.config;
+
+import com.sky.utils.SnowflakeIdGenerator;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 订单号生成器配置类
+ */
+@Configuration
+@Slf4j
+public class IdGeneratorConfiguration {
+
+    //自动分配节点id时的租约,应用关闭时释放
+    private SnowflakeNodeLease nodeLease;
+
+    /**
+     * 创建雪花算法id生成器,未配置节点id时从redis租用空闲的节点id,保证同时运行的实例节点id不同
+     * @param nodeId
+     * @param stringRedisTemplate
+     * @return
+     */
+    @Bean
+    public SnowflakeIdGenerator orderNumberGenerator(@Value("${sky.order.node-id:-1}") long nodeId,
+                                                     StringRedisTemplate stringRedisTemplate) {
+        if (nodeId < 0) {
+            nodeLease = new SnowflakeNodeLease(stringRedisTemplate);
+            nodeId = nodeLease.getNodeId();
+        }
+        log.info("开始创建订单号生成器,节点id：{}", nodeId);
+        return new SnowflakeIdGenerator(nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (nodeLease != null) {
+            nodeLease.release();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.sky.config;
+
+import com.sky.constant.RedisConstent;
+import com.sky.utils.SnowflakeIdGenerator;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 订单号生成器节点id租约
+ * 启动时在redis中占用一个空闲的节点id并定期续期,应用关闭时释放,同时运行的实例不会使用相同的节点id
+ * 实例异常退出时节点id在租期结束后自动释放,没有空闲的节点id时启动失败
+ */
+@Slf4j
+public class SnowflakeNodeLease {
+
+    //租期,每隔租期的1/3续期一次
+    static final long LEASE_MILLIS = 60 * 1000;
+
+    //节点id仍属于自己时续期
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+        Long.class);
+    //节点id仍属于自己时释放
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    //租约的值区分实例,只能续期和释放自己占用的节点id
+    private final String value = UUID.randomUUID().toString();
+    private final long nodeId;
+    private final ScheduledExecutorService renewExecutor;
+
+    public SnowflakeNodeLease(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.nodeId = acquire();
+        this.renewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snowflake-node-renew");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewInterval = LEASE_MILLIS / 3;
+        renewExecutor.scheduleWithFixedDelay(this::renew, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 占用一个空闲的节点id,从随机位置开始查找,减少多个实例同时启动时的冲突
+     * @return
+     */
+    private long acquire() {
+        long nodeCount = SnowflakeIdGenerator.MAX_NODE_ID + 1;
+        long start = ThreadLocalRandom.current().nextLong(nodeCount);
+        for (long i = 0; i < nodeCount; i++) {
+            long candidate = (start + i) % nodeCount;
+            Boolean acquired = stringRedisTemplate.opsForValue()
+                .setIfAbsent(key(candidate), value, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有空闲的订单号生成器节点id,运行中的实例数不能超过" + nodeCount);
+    }
+
+    private void renew() {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key(nodeId)),
+                value, String.valueOf(LEASE_MILLIS));
+            if (renewed != null && renewed != 0) {
+                return;
+            }
+            //租约已过期,节点id没有被其他实例占用时重新占用
+            Boolean reacquired = stringRedisTemplate.opsForValue()
+                .setIfAbsent(key(nodeId), value, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(reacquired)) {
+                log.warn("订单号生成器节点id{}的租约已过期,已重新占用", nodeId);
+            } else {
+                log.error("订单号生成器节点id{}已被其他实例占用,生成的订单号可能重复,请重启实例", nodeId);
+            }
+        } catch (Exception e) {
+            //暂时无法续期,租约过期前下次续期仍可能成功
+            log.warn("订单号生成器节点id{}续期失败", nodeId, e);
+        }
+    }
+
+    /**
+     * 停止续期并释放节点id
+     */
+    public void release() {
+        renewExecutor.shutdownNow();
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(key(nodeId)), value);
+            log.info("已释放订单号生成器节点id：{}", nodeId);
+        } catch (Exception e) {
+            //释放失败时节点id在租期结束后自动释放
+            log.warn("释放订单号生成器节点id{}失败", nodeId, e);
+        }
+    }
+
+    private static String key(long nodeId) {
+        return RedisConstent.SNOWFLAKE_NODE_KEY_PREFIX + nodeId;
+    }
+}
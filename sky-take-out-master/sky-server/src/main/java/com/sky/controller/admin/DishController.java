@@ -5,17 +5,19 @@ import com.sky.dto.DishPageQueryDTO;
 import com.sky.entity.Dish;
 import com.sky.result.PageResult;
 import com.sky.result.Result;
+import com.sky.service.DishCacheService;
 import com.sky.service.DishService;
 import com.sky.vo.DishVO;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
      * 菜品管理接口
@@ -28,7 +30,7 @@ import java.util.List;
         @Autowired
         private DishService dishService;
         @Autowired
-        private RedisTemplate redisTemplate;
+        private DishCacheService dishCacheService;
 
         /**
          * 新增菜品
@@ -41,7 +43,7 @@ import java.util.List;
             log.info("新增菜品：{}", dishDTO);
             dishService.saveWithFlavor(dishDTO);
             //清理单个分类缓存
-            cleanCache("dish_"+dishDTO.getCategoryId());
+            dishCacheService.evict(dishDTO.getCategoryId());
             return Result.success();
         }
 
@@ -67,10 +69,12 @@ import java.util.List;
         @ApiOperation("根据id批量删除菜品")
         public Result delete(@RequestParam List<Long> ids){
             log.info("根据id批量删除菜品：{}", ids);
+            //删除之前查询菜品所属的分类
+            List<Long> categoryIds = dishService.listCategoryIds(ids);
             dishService.deleteBatch(ids);
             //清理redis缓存
             // TODO: 2023/12/30 有必要删除的时候清理缓存吗？毕竟删除的前提是禁用这个菜品,既然禁用了，那么就不会再被用户查询到了,等修改的时候再一并清理缓存不就好了吗？
-            cleanCache("dish_*");
+            dishCacheService.evict(categoryIds);
             return Result.success();
         }
         /**
@@ -95,9 +99,11 @@ import java.util.List;
     @ApiOperation("根据id修改菜品")
     public Result update(@RequestBody DishDTO dishDTO){
             log.info("修改菜品：{}", dishDTO);
+            //修改分类时原分类和新分类的缓存都需要清理
+            Set<Long> categoryIds = new HashSet<>(dishService.listCategoryIds(Collections.singletonList(dishDTO.getId())));
             dishService.updateWithFlavor(dishDTO);
-            //由于修改的时候涉及到的缓存更新机制比较复杂，所以这里简单粗暴的清理所有缓存
-            cleanCache("dish_*");
+            categoryIds.add(dishDTO.getCategoryId());
+            dishCacheService.evict(categoryIds);
             return Result.success();
     }
 
@@ -123,17 +129,8 @@ import java.util.List;
     @ApiOperation("启用或禁用菜品")
     public Result status(@PathVariable Integer status,Long id){
             dishService.startOrStop(status,id);
-            //同样的，这里也是简单粗暴的清理所有缓存
-            cleanCache("dish_*");
+            //清理菜品所属分类的缓存
+            dishCacheService.evict(dishService.listCategoryIds(Collections.singletonList(id)));
             return Result.success();
     }
-
-    /**
-     * 清理缓存数据
-     * @param pattern
-     */
-    private void cleanCache(String pattern){
-        Set keys = redisTemplate.keys(pattern);
-        redisTemplate.delete(keys);
-    }
 }
\ No newline at end of file
@@ -2,8 +2,10 @@ package com.sky.controller.admin;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.sky.result.Result;
+import com.sky.service.ReportExportService;
 import com.sky.service.ReportService;
 import com.sky.vo.OrderReportVO;
+import com.sky.vo.ReportExportJobVO;
 import com.sky.vo.SalesTop10ReportVO;
 import com.sky.vo.TurnoverReportVO;
 import com.sky.vo.UserReportVO;
@@ -15,6 +17,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -29,6 +33,8 @@ import org.springframework.web.bind.annotation.RestController;
 public class ReportController {
     @Autowired
     private ReportService reportService;
+    @Autowired
+    private ReportExportService reportExportService;
     /**
      * 营业额报表
      * @return
@@ -95,12 +101,57 @@ public class ReportController {
 
     /**
      * 导出营业数据报表
+     * @param begin 可选,默认近30天
+     * @param end 可选,默认近30天
      * @param response
      */
     @GetMapping("/export")
     @ApiOperation("导出营业数据报表")
-    public void export(HttpServletResponse response){
-        reportService.exportBusinessData(response);
+    public void export(
+        @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate begin,
+        @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate end,
+        HttpServletResponse response){
+        log.info("导出营业数据报表：{}-{}",begin,end);
+        reportService.exportBusinessData(begin,end,response);
+    }
+
+    /**
+     * 提交营业数据报表异步导出任务
+     * @param begin 可选,默认近30天
+     * @param end 可选,默认近30天
+     * @return
+     */
+    @PostMapping("/export/jobs")
+    @ApiOperation("提交营业数据报表导出任务")
+    public Result<ReportExportJobVO> submitExportJob(
+        @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate begin,
+        @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate end){
+        log.info("提交营业数据报表导出任务：{}-{}",begin,end);
+        ReportExportJobVO reportExportJobVO = reportExportService.submit(begin,end);
+        return Result.success(reportExportJobVO);
+    }
+
+    /**
+     * 查询营业数据报表导出任务状态
+     * @param jobId
+     * @return
+     */
+    @GetMapping("/export/jobs/{jobId}")
+    @ApiOperation("查询营业数据报表导出任务")
+    public Result<ReportExportJobVO> getExportJob(@PathVariable String jobId){
+        return Result.success(reportExportService.getJob(jobId));
+    }
+
+    /**
+     * 下载营业数据报表导出文件
+     * @param jobId
+     * @param response
+     */
+    @GetMapping("/export/jobs/{jobId}/file")
+    @ApiOperation("下载营业数据报表导出文件")
+    public void downloadExportFile(@PathVariable String jobId, HttpServletResponse response){
+        log.info("下载营业数据报表导出文件：{}",jobId);
+        reportExportService.download(jobId,response);
     }
 
 }
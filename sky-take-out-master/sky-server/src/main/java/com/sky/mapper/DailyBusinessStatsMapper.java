@@ -0,0 +1,30 @@
+package com.sky.mapper;
+
+import com.sky.dto.DailyStatisticsDTO;
+import java.time.LocalDate;
+import java.util.List;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface DailyBusinessStatsMapper {
+
+    /**
+     * 在指定日期的汇总数据上累加增量,当天没有汇总数据时插入一条
+     * @param delta 各字段的增量,为空的字段不累加
+     */
+    void increment(DailyStatisticsDTO delta);
+
+    /**
+     * 用原始数据统计出的结果覆盖指定日期的汇总数据
+     * @param statistics
+     */
+    void upsert(DailyStatisticsDTO statistics);
+
+    /**
+     * 查询指定日期区间的汇总数据
+     * @param begin
+     * @param end
+     * @return 只包含有汇总数据的日期
+     */
+    List<DailyStatisticsDTO> listByDateRange(LocalDate begin, LocalDate end);
+}
@@ -5,7 +5,6 @@ import java.util.List;
 
 import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Mapper;
-import org.apache.ibatis.annotations.Select;
 
 @Mapper
 public interface DishFlavorMapper {
@@ -18,12 +17,11 @@ public interface DishFlavorMapper {
     void deleteByDishIds(List<Long> dishIds);
 
     /**
-     * 根据菜品id查询口味数据
-     * @param dishiId
+     * 根据多个菜品id查询口味数据
+     * @param dishIds
      * @return
      */
-    @Select("select * from dish_flavor where dish_id = #{dishId}")
-    List<DishFlavor> getByDishId(Long dishiId);
+    List<DishFlavor> getByDishIds(List<Long> dishIds);
 
     /**
      * 根据菜品id删除口味数据
@@ -1,7 +1,9 @@
 package com.sky.mapper;
 
 import com.github.pagehelper.Page;
+import com.sky.dto.DailyStatisticsDTO;
 import com.sky.dto.GoodsSalesDTO;
+import com.sky.dto.OrderStatusCountDTO;
 import com.sky.dto.OrdersPageQueryDTO;
 import com.sky.entity.Orders;
 import java.time.LocalDate;
@@ -58,8 +60,58 @@ public interface OrderMapper {
     @Select("select count(id) from orders where status = #{status}")
     Integer countByStatus(Integer status);
 
-    @Select("select id from orders where status = #{status} and order_time < #{orderTime}" )
-    List<Orders> getByStatusAndOrderTimeLT(Integer status, LocalDateTime orderTime);
+    /**
+     * 按订单状态分组统计订单数
+     * @param beginTime 为空时不限制下单时间
+     * @param statuses 为空时统计所有状态
+     * @return
+     */
+    List<OrderStatusCountDTO> countGroupByStatus(LocalDateTime beginTime, List<Integer> statuses);
+
+    /**
+     * 查询指定状态且下单时间早于指定时间的订单涉及的下单日期
+     * @param status
+     * @param orderTime
+     * @return 按日期升序排列
+     */
+    @Select("select distinct date(order_time) as order_date from orders where status = #{status} and order_time < #{orderTime} order by order_date")
+    List<LocalDate> getOrderDatesByStatusAndOrderTimeLT(Integer status, LocalDateTime orderTime);
+
+    /**
+     * 批量修改指定状态且下单时间早于指定时间的订单状态,每次最多修改limit行
+     * @param fromStatus 修改前的状态
+     * @param orderTime
+     * @param orders 修改后的状态、取消原因和取消时间
+     * @param limit
+     * @return 修改的行数
+     */
+    Integer updateStatusByStatusAndOrderTimeLT(Integer fromStatus, LocalDateTime orderTime, Orders orders, Integer limit);
+
+    /**
+     * 订单处于指定状态之一时修改订单状态,状态已经变化时不修改
+     * @param id
+     * @param fromStatuses 允许修改的状态
+     * @param orders 修改后的状态、取消原因、拒单原因、取消时间和送达时间,修改成功后fromStatus为修改前的状态
+     * @return 修改的行数,为0时说明订单不存在或状态不允许修改
+     */
+    Integer updateStatusByIdAndStatus(Long id, List<Integer> fromStatuses, Orders orders);
+
+    /**
+     * 查询指定状态的订单并加行锁,用于批量修改状态前确认哪些订单会被修改
+     * @param ids
+     * @param status
+     * @return
+     */
+    List<Orders> getByIdsAndStatusForUpdate(List<Long> ids, Integer status);
+
+    /**
+     * 批量修改指定状态的订单,状态已经变化的订单不会被修改
+     * @param ids
+     * @param fromStatus 修改前的状态
+     * @param orders 修改后的状态、取消原因和取消时间
+     * @return 修改的行数
+     */
+    Integer updateStatusByIdsAndStatus(List<Long> ids, Integer fromStatus, Orders orders);
 
     /**
      * 根据动态条件统计营业额数量
@@ -82,4 +134,12 @@ public interface OrderMapper {
      * @return
      */
     List<GoodsSalesDTO> getSalesTop10(LocalDateTime beginTime, LocalDateTime endTime);
+
+    /**
+     * 按天分组统计指定时间区间的订单量、有效订单量、取消订单量和营业额
+     * @param beginTime
+     * @param endTime
+     * @return 只包含有订单的日期
+     */
+    List<DailyStatisticsDTO> getDailyStatistics(LocalDateTime beginTime, LocalDateTime endTime);
 }
@@ -1,6 +1,9 @@
 package com.sky.mapper;
 
+import com.sky.dto.DailyStatisticsDTO;
 import com.sky.entity.User;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Select;
@@ -35,4 +38,12 @@ public interface UserMapper {
      * @return
      */
     Integer countByMap(Map map);
+
+    /**
+     * 按天分组统计指定时间区间的新增用户数
+     * @param beginTime
+     * @param endTime
+     * @return 只包含有新增用户的日期
+     */
+    List<DailyStatisticsDTO> getDailyNewUsers(LocalDateTime beginTime, LocalDateTime endTime);
 }
@@ -0,0 +1,58 @@
+package com.sky.service;
+
+import com.sky.dto.DailyStatisticsDTO;
+import com.sky.entity.Orders;
+import com.sky.entity.User;
+import com.sky.vo.BusinessDataVO;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface BusinessStatsService {
+
+    /**
+     * 新订单提交后累加订单总数
+     * @param orders
+     */
+    void orderSubmitted(Orders orders);
+
+    /**
+     * 订单完成后累加有效订单数和营业额,调用方需保证每个订单只调用一次
+     * @param ordersDB 订单数据,使用下单时间和金额
+     */
+    void orderCompleted(Orders ordersDB);
+
+    /**
+     * 订单取消后累加取消订单数,调用方需保证每个订单只调用一次
+     * @param ordersDB 订单数据,使用下单时间
+     */
+    void orderCancelled(Orders ordersDB);
+
+    /**
+     * 新用户注册后累加新增用户数
+     * @param user
+     */
+    void userRegistered(User user);
+
+    /**
+     * 根据原始订单和用户数据重新统计指定日期区间的汇总数据
+     * @param begin
+     * @param end
+     */
+    void reconcile(LocalDate begin, LocalDate end);
+
+    /**
+     * 查询指定日期区间每天的营业数据,今天之前的日期读取汇总表,今天的数据实时统计
+     * @param begin
+     * @param end
+     * @return 只包含有数据的日期
+     */
+    List<DailyStatisticsDTO> getDailyStatistics(LocalDate begin, LocalDate end);
+
+    /**
+     * 累加每日营业数据,计算订单完成率和平均客单价
+     * @param dailyList
+     * @return
+     */
+    BusinessDataVO sumBusinessData(Collection<DailyStatisticsDTO> dailyList);
+}
@@ -0,0 +1,13 @@
+package com.sky.service;
+
+import com.sky.entity.AddressBook;
+
+public interface DeliveryRangeService {
+
+    /**
+     * 判断收货地址是否超出配送范围
+     * @param addressBook
+     * @return
+     */
+    boolean isOutOfRange(AddressBook addressBook);
+}
@@ -0,0 +1,28 @@
+package com.sky.service;
+
+import com.sky.vo.DishVO;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface DishCacheService {
+
+    /**
+     * 查询分类下起售的菜品和口味,依次读取本地缓存、redis和数据库
+     * @param categoryId
+     * @return
+     */
+    List<DishVO> listByCategoryId(Long categoryId);
+
+    /**
+     * 分类下的菜品修改后使该分类的缓存失效
+     * @param categoryId
+     */
+    void evict(Long categoryId);
+
+    /**
+     * 使多个分类的缓存失效
+     * @param categoryIds
+     */
+    void evict(Collection<Long> categoryIds);
+}
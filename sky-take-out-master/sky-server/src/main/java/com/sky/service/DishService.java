@@ -48,6 +48,13 @@ public interface DishService {
      */
     List<Dish> listByCategoryId(Long categoryId);
 
+    /**
+     * 查询菜品所属的分类id
+     * @param ids
+     * @return
+     */
+    List<Long> listCategoryIds(List<Long> ids);
+
     /**
      * 启用或禁用菜品
      * @param status
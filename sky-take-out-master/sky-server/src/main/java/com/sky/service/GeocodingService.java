@@ -0,0 +1,39 @@
+package com.sky.service;
+
+import com.sky.entity.AddressBook;
+import com.sky.utils.GeoUtil.Location;
+
+public interface GeocodingService {
+
+    /**
+     * 获取商家经纬度坐标,启动时解析一次
+     * @return
+     */
+    Location getShopLocation();
+
+    /**
+     * 获取收货地址的经纬度坐标,结果按地址文本缓存
+     * @param addressBook
+     * @return
+     */
+    Location getLocation(AddressBook addressBook);
+
+    /**
+     * 调用路线规划接口获取商家到收货地址的驾车距离,结果按地址文本缓存
+     * @param addressBook
+     * @return 距离(单位米)
+     */
+    Integer getDeliveryDistance(AddressBook addressBook);
+
+    /**
+     * 异步预先解析收货地址的经纬度坐标,下单时直接命中缓存
+     * @param addressBook
+     */
+    void prefetch(AddressBook addressBook);
+
+    /**
+     * 清除收货地址的缓存
+     * @param addressBook
+     */
+    void evict(AddressBook addressBook);
+}
@@ -0,0 +1,42 @@
+package com.sky.service;
+
+import com.sky.entity.Orders;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+public interface OrderStatusCountService {
+
+    /**
+     * 待接单、待派送、派送中的订单数,读取redis中的计数,不查询数据库
+     * @return 订单状态到订单数的映射
+     */
+    Map<Integer, Integer> getActiveCounts();
+
+    /**
+     * 今天下单的订单按状态分组的订单数,读取redis中的计数,不查询数据库
+     * @return 订单状态到订单数的映射
+     */
+    Map<Integer, Integer> getTodayCounts();
+
+    /**
+     * 订单状态变化后加减计数
+     * @param orderTime 下单时间,为null时只修改进行中的订单计数,今天的计数由定期重新统计修正
+     * @param fromStatus 修改前的状态,新订单为null
+     * @param toStatus 修改后的状态
+     */
+    void statusChanged(LocalDateTime orderTime, Integer fromStatus, Integer toStatus);
+
+    /**
+     * 多个订单状态变化后加减计数
+     * @param ordersList 修改前的订单,使用下单时间和状态
+     * @param toStatus 修改后的状态
+     */
+    void statusChanged(List<Orders> ordersList, Integer toStatus);
+
+    /**
+     * 根据数据库重新统计,修正加减计数的偏差
+     */
+    void reconcile();
+}
@@ -0,0 +1,33 @@
+package com.sky.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface OrderTimeoutService {
+
+    /**
+     * 登记待支付订单,到达超时时间后自动取消
+     * @param orderId
+     * @param orderTime
+     */
+    void schedule(Long orderId, LocalDateTime orderTime);
+
+    /**
+     * 订单已支付或已取消,不再需要超时取消
+     * @param orderId
+     */
+    void remove(Long orderId);
+
+    /**
+     * 取消已经超时但还没有被取消的订单,用于兜底
+     * @return 取消的订单数
+     */
+    int sweepExpired();
+
+    /**
+     * 批量取消仍处于待支付状态的超时订单
+     * @param ids
+     * @return 取消的订单数
+     */
+    int cancelTimeoutOrders(List<Long> ids);
+}
@@ -0,0 +1,35 @@
+package com.sky.service;
+
+import com.sky.vo.ReportExportJobVO;
+import java.time.LocalDate;
+import javax.servlet.http.HttpServletResponse;
+
+public interface ReportExportService {
+
+    /**
+     * 提交营业数据报表异步导出任务,相同日期区间未完成的任务直接复用
+     * @param begin 为空时默认导出近30天
+     * @param end 为空时默认导出近30天
+     * @return
+     */
+    ReportExportJobVO submit(LocalDate begin, LocalDate end);
+
+    /**
+     * 查询导出任务状态
+     * @param jobId
+     * @return
+     */
+    ReportExportJobVO getJob(String jobId);
+
+    /**
+     * 下载已完成的导出文件
+     * @param jobId
+     * @param response
+     */
+    void download(String jobId, HttpServletResponse response);
+
+    /**
+     * 清理过期的导出任务和文件
+     */
+    void cleanExpiredJobs();
+}
@@ -4,6 +4,8 @@ import com.sky.vo.OrderReportVO;
 import com.sky.vo.SalesTop10ReportVO;
 import com.sky.vo.TurnoverReportVO;
 import com.sky.vo.UserReportVO;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import javax.servlet.http.HttpServletResponse;
 
@@ -43,7 +45,25 @@ public interface ReportService {
 
     /**
      * 导出营业数据报表
+     * @param begin 为空时默认导出近30天
+     * @param end 为空时默认导出近30天
      * @param response
      */
-    void exportBusinessData(HttpServletResponse response);
+    void exportBusinessData(LocalDate begin, LocalDate end, HttpServletResponse response);
+
+    /**
+     * 将指定日期区间的营业数据报表写入输出流
+     * @param begin
+     * @param end
+     * @param outputStream
+     * @throws IOException
+     */
+    void writeBusinessData(LocalDate begin, LocalDate end, OutputStream outputStream) throws IOException;
+
+    /**
+     * 校验导出的日期区间,不合法时抛出业务异常
+     * @param begin
+     * @param end
+     */
+    void checkExportDateRange(LocalDate begin, LocalDate end);
 }
@@ -4,6 +4,7 @@ import com.sky.context.BaseContext;
 import com.sky.entity.AddressBook;
 import com.sky.mapper.AddressBookMapper;
 import com.sky.service.AddressBookService;
+import com.sky.service.GeocodingService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -15,6 +16,8 @@ import java.util.List;
 public class AddressBookServiceImpl implements AddressBookService {
     @Autowired
     private AddressBookMapper addressBookMapper;
+    @Autowired
+    private GeocodingService geocodingService;
 
     /**
      * 条件查询
@@ -35,6 +38,8 @@ public class AddressBookServiceImpl implements AddressBookService {
         addressBook.setUserId(BaseContext.getCurrentId());
         addressBook.setIsDefault(0);
         addressBookMapper.insert(addressBook);
+        //提前计算配送距离,下单时直接命中缓存
+        geocodingService.prefetch(addressBook);
     }
 
     /**
@@ -54,7 +59,11 @@ public class AddressBookServiceImpl implements AddressBookService {
      * @param addressBook
      */
     public void update(AddressBook addressBook) {
+        //清除修改前地址的配送距离缓存
+        geocodingService.evict(addressBookMapper.getById(addressBook.getId()));
         addressBookMapper.update(addressBook);
+        //提前计算修改后地址的配送距离
+        geocodingService.prefetch(addressBookMapper.getById(addressBook.getId()));
     }
 
     /**
@@ -80,6 +89,7 @@ public class AddressBookServiceImpl implements AddressBookService {
      * @param id
      */
     public void deleteById(Long id) {
+        geocodingService.evict(addressBookMapper.getById(id));
         addressBookMapper.deleteById(id);
     }
 
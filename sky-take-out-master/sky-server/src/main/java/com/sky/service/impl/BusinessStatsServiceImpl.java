@@ -0,0 +1,185 @@
+package com.sky.service.impl;
+
+import com.sky.dto.DailyStatisticsDTO;
+import com.sky.entity.Orders;
+import com.sky.entity.User;
+import com.sky.mapper.DailyBusinessStatsMapper;
+import com.sky.mapper.OrderMapper;
+import com.sky.mapper.UserMapper;
+import com.sky.service.BusinessStatsService;
+import com.sky.vo.BusinessDataVO;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class BusinessStatsServiceImpl implements BusinessStatsService {
+
+    @Autowired
+    private DailyBusinessStatsMapper dailyBusinessStatsMapper;
+    @Autowired
+    private OrderMapper orderMapper;
+    @Autowired
+    private UserMapper userMapper;
+
+    /**
+     * 新订单提交后累加订单总数
+     *
+     * @param orders
+     */
+    @Override
+    public void orderSubmitted(Orders orders) {
+        dailyBusinessStatsMapper.increment(DailyStatisticsDTO.builder()
+            .statDate(orders.getOrderTime().toLocalDate())
+            .orderCount(1)
+            .build());
+    }
+
+    /**
+     * 订单完成后累加有效订单数和营业额
+     *
+     * @param ordersDB
+     */
+    @Override
+    public void orderCompleted(Orders ordersDB) {
+        dailyBusinessStatsMapper.increment(DailyStatisticsDTO.builder()
+            .statDate(ordersDB.getOrderTime().toLocalDate())
+            .validOrderCount(1)
+            .turnover(ordersDB.getAmount() == null ? 0.0 : ordersDB.getAmount().doubleValue())
+            .build());
+    }
+
+    /**
+     * 订单取消后累加取消订单数
+     *
+     * @param ordersDB
+     */
+    @Override
+    public void orderCancelled(Orders ordersDB) {
+        dailyBusinessStatsMapper.increment(DailyStatisticsDTO.builder()
+            .statDate(ordersDB.getOrderTime().toLocalDate())
+            .cancelledOrderCount(1)
+            .build());
+    }
+
+    /**
+     * 新用户注册后累加新增用户数
+     *
+     * @param user
+     */
+    @Override
+    public void userRegistered(User user) {
+        dailyBusinessStatsMapper.increment(DailyStatisticsDTO.builder()
+            .statDate(user.getCreateTime().toLocalDate())
+            .newUsers(1)
+            .build());
+    }
+
+    /**
+     * 根据原始订单和用户数据重新统计指定日期区间的汇总数据
+     *
+     * @param begin
+     * @param end
+     */
+    @Override
+    public void reconcile(LocalDate begin, LocalDate end) {
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = queryDailyStatistics(begin, end);
+        //没有数据的日期也要覆盖,修正增量维护产生的偏差
+        for (LocalDate date = begin; !date.isAfter(end); date = date.plusDays(1)) {
+            DailyStatisticsDTO daily = dailyMap.getOrDefault(date, new DailyStatisticsDTO());
+            daily.setStatDate(date);
+            dailyBusinessStatsMapper.upsert(daily);
+        }
+        log.info("营业数据汇总对账完成：{}-{}", begin, end);
+    }
+
+    /**
+     * 查询指定日期区间每天的营业数据
+     *
+     * @param begin
+     * @param end
+     * @return
+     */
+    @Override
+    public List<DailyStatisticsDTO> getDailyStatistics(LocalDate begin, LocalDate end) {
+        LocalDate today = LocalDate.now();
+        List<DailyStatisticsDTO> dailyList = new ArrayList<>();
+        //今天之前的数据已经汇总,直接读取汇总表
+        if (begin.isBefore(today)) {
+            LocalDate historyEnd = end.isBefore(today) ? end : today.minusDays(1);
+            dailyList.addAll(dailyBusinessStatsMapper.listByDateRange(begin, historyEnd));
+        }
+        //今天的数据还在变化,从原始数据实时统计
+        if (!end.isBefore(today)) {
+            LocalDate liveBegin = begin.isAfter(today) ? begin : today;
+            dailyList.addAll(queryDailyStatistics(liveBegin, end).values());
+        }
+        return dailyList;
+    }
+
+    /**
+     * 累加每日营业数据,计算订单完成率和平均客单价
+     *
+     * @param dailyList
+     * @return
+     */
+    @Override
+    public BusinessDataVO sumBusinessData(Collection<DailyStatisticsDTO> dailyList) {
+        double turnover = 0.0;
+        int totalOrderCount = 0;
+        int validOrderCount = 0;
+        int newUsers = 0;
+        for (DailyStatisticsDTO daily : dailyList) {
+            turnover += daily.getTurnover() == null ? 0.0 : daily.getTurnover();
+            totalOrderCount += daily.getOrderCount() == null ? 0 : daily.getOrderCount();
+            validOrderCount += daily.getValidOrderCount() == null ? 0 : daily.getValidOrderCount();
+            newUsers += daily.getNewUsers() == null ? 0 : daily.getNewUsers();
+        }
+        Double unitPrice = 0.0;
+        Double orderCompletionRate = 0.0;
+        if (totalOrderCount != 0 && validOrderCount != 0) {
+            //订单完成率
+            orderCompletionRate = (double) validOrderCount / totalOrderCount;
+            //平均客单价
+            unitPrice = turnover / validOrderCount;
+        }
+        return BusinessDataVO.builder()
+            .turnover(turnover)
+            .validOrderCount(validOrderCount)
+            .orderCompletionRate(orderCompletionRate)
+            .unitPrice(unitPrice)
+            .newUsers(newUsers)
+            .build();
+    }
+
+    /**
+     * 从原始订单和用户数据按天统计营业数据
+     * @param begin
+     * @param end
+     * @return
+     */
+    private Map<LocalDate, DailyStatisticsDTO> queryDailyStatistics(LocalDate begin, LocalDate end) {
+        LocalDateTime beginTime = LocalDateTime.of(begin, LocalTime.MIN);
+        LocalDateTime endTime = LocalDateTime.of(end, LocalTime.MAX);
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = new TreeMap<>();
+        for (DailyStatisticsDTO daily : orderMapper.getDailyStatistics(beginTime, endTime)) {
+            dailyMap.put(daily.getStatDate(), daily);
+        }
+        //将新增用户数合并到同一天的订单统计数据中
+        for (DailyStatisticsDTO dailyUsers : userMapper.getDailyNewUsers(beginTime, endTime)) {
+            dailyMap.computeIfAbsent(dailyUsers.getStatDate(),
+                date -> DailyStatisticsDTO.builder().statDate(date).build())
+                .setNewUsers(dailyUsers.getNewUsers());
+        }
+        return dailyMap;
+    }
+}
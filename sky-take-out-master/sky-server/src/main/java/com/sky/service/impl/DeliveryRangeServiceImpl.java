@@ -0,0 +1,65 @@
+package com.sky.service.impl;
+
+import com.sky.constant.ShopConstant;
+import com.sky.entity.AddressBook;
+import com.sky.service.DeliveryRangeService;
+import com.sky.service.GeocodingService;
+import com.sky.utils.GeoUtil;
+import com.sky.utils.GeoUtil.Location;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class DeliveryRangeServiceImpl implements DeliveryRangeService {
+
+    /**
+     * 驾车距离与直线距离之比的上限,直线距离乘以该比值仍在配送范围内时不再查询路线
+     */
+    public static final double MAX_DETOUR_RATIO = 1.5;
+
+    @Autowired
+    private GeocodingService geocodingService;
+    //配送范围电子围栏,格式为"纬度,经度;纬度,经度;...",为空时不限制
+    @Value("${sky.shop.geofence:}")
+    private String geofenceText;
+
+    private List<Location> geofence;
+
+    @PostConstruct
+    public void init() {
+        geofence = GeoUtil.parsePolygon(geofenceText);
+        log.info("配送范围电子围栏顶点数：{}", geofence.size());
+    }
+
+    /**
+     * 判断收货地址是否超出配送范围
+     *
+     * @param addressBook
+     * @return
+     */
+    @Override
+    public boolean isOutOfRange(AddressBook addressBook) {
+        Location location = geocodingService.getLocation(addressBook);
+        //不在电子围栏内的地址直接超出配送范围
+        if (geofence.size() >= 3 && !GeoUtil.contains(geofence, location)) {
+            return true;
+        }
+        double straightDistance = GeoUtil.distance(geocodingService.getShopLocation(), location);
+        //驾车距离不会小于直线距离,直线距离超出配送范围时一定超出
+        if (straightDistance > ShopConstant.DELIVERY_RANGE_METERS) {
+            return true;
+        }
+        //离商家足够近的地址一定在配送范围内
+        if (straightDistance * MAX_DETOUR_RATIO <= ShopConstant.DELIVERY_RANGE_METERS) {
+            return false;
+        }
+        //靠近配送范围边界的地址再查询实际驾车距离
+        log.info("收货地址靠近配送范围边界,直线距离：{}米,查询驾车距离", (int) straightDistance);
+        return geocodingService.getDeliveryDistance(addressBook) > ShopConstant.DELIVERY_RANGE_METERS;
+    }
+}
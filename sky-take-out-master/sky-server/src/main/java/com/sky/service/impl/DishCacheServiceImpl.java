@@ -0,0 +1,467 @@
+package com.sky.service.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sky.constant.RedisConstent;
+import com.sky.constant.StatusConstant;
+import com.sky.entity.Dish;
+import com.sky.service.DishCacheService;
+import com.sky.service.DishService;
+import com.sky.vo.DishVO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 菜品两级缓存
+ * 本地缓存按分类id缓存,redis缓存的key包含版本号,修改菜品后递增版本号,旧版本的缓存不会再被读取,过期后自动删除
+ * 版本号变化后通过redis频道通知所有实例清理本地缓存
+ * 每个分类写入过的redis key记录在集合中,清理分类缓存时直接删除,不使用KEYS命令
+ * 防止缓存击穿:本地缓存同一个分类只有一个线程加载,redis未命中时多个实例通过分布式锁只由一个实例查询数据库,
+ * 接近过期时按概率提前刷新,没有菜品的分类只在redis中缓存较短时间,不占用本地缓存
+ */
+@Service
+@Slf4j
+public class DishCacheServiceImpl implements DishCacheService, MessageListener {
+
+    //本地缓存最多缓存的分类数
+    private static final int LOCAL_CACHE_SIZE = 1000;
+    //本地缓存过期时间,失效通知丢失时最多读取这么久的旧数据
+    private static final long LOCAL_CACHE_TTL_MINUTES = 10;
+    //redis缓存过期时间
+    private static final long REDIS_CACHE_TTL_MINUTES = 60;
+    //没有菜品的分类在redis中的缓存时间,避免不存在的分类占用缓存
+    private static final long EMPTY_CACHE_TTL_MINUTES = 5;
+    //加载锁的过期时间,查询数据库超过该时间时其他实例也会开始加载
+    private static final long LOAD_LOCK_TTL_MILLIS = 5000;
+    //未拿到加载锁时等待其他实例写入缓存的最长时间和轮询间隔
+    private static final long LOAD_WAIT_MILLIS = 2000;
+    private static final long LOAD_WAIT_INTERVAL_MILLIS = 50;
+    //提前刷新的时间窗口下限,本地缓存使redis读取次数很少,按实际加载耗时计算窗口太小
+    private static final long EARLY_REFRESH_MIN_DELTA_MILLIS = 60_000;
+    //提前刷新的积极程度,越大越早刷新
+    private static final double EARLY_REFRESH_BETA = 1.0;
+    //每次批量删除的key数
+    private static final int UNLINK_BATCH_SIZE = 500;
+    //SCAN命令每次遍历的key数
+    private static final int SCAN_COUNT = 1000;
+    //旧版本没有版本号、也没有过期时间的菜品缓存key
+    private static final Pattern LEGACY_DISH_CACHE_KEY = Pattern.compile(
+        Pattern.quote(RedisConstent.USER_DISH_LIST_KEY_PREFIX) + "\\d+");
+    //锁仍属于自己时释放
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+        Long.class);
+
+    @Autowired
+    private DishService dishService;
+    @Autowired
+    private RedisTemplate redisTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    //redis未命中时是否使用分布式锁,只由一个实例查询数据库
+    @Value("${sky.dish-cache.load-lock:true}")
+    private boolean loadLockEnabled;
+    //是否清理旧版本遗留的菜品缓存,所有实例中只执行一次
+    @Value("${sky.dish-cache.legacy-cleanup:false}")
+    private boolean legacyCleanupEnabled;
+
+    //分类id -> 起售的菜品和口味,加载中的分类保存加载结果的future
+    private final AsyncCache<Long, List<DishVO>> localCache = Caffeine.newBuilder()
+        .maximumSize(LOCAL_CACHE_SIZE)
+        .expireAfterWrite(LOCAL_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+        .buildAsync();
+
+    @PostConstruct
+    public void init() {
+        //订阅菜品缓存失效通知
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(RedisConstent.DISH_CACHE_CHANNEL));
+        if (legacyCleanupEnabled) {
+            Thread thread = new Thread(this::cleanupLegacyKeys, "dish-cache-legacy-cleanup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 后台清理旧版本遗留的没有过期时间的菜品缓存,完成标记保存在redis中,只有第一个启动的实例执行一次
+     */
+    private void cleanupLegacyKeys() {
+        Boolean first;
+        try {
+            first = stringRedisTemplate.opsForValue().setIfAbsent(RedisConstent.DISH_LEGACY_CLEANUP_KEY, LocalDateTime.now().toString());
+        } catch (Exception e) {
+            log.warn("清理旧版本菜品缓存失败", e);
+            return;
+        }
+        if (!Boolean.TRUE.equals(first)) {
+            log.info("旧版本菜品缓存已经清理过,跳过");
+            return;
+        }
+        try {
+            int unlinked = unlinkByScan(LEGACY_DISH_CACHE_KEY);
+            log.info("清理旧版本菜品缓存{}个", unlinked);
+        } catch (Exception e) {
+            //清理失败时删除标记,下次启动重试
+            log.warn("清理旧版本菜品缓存失败", e);
+            stringRedisTemplate.delete(RedisConstent.DISH_LEGACY_CLEANUP_KEY);
+        }
+    }
+
+    /**
+     * 查询分类下起售的菜品和口味,依次读取本地缓存、redis和数据库
+     *
+     * @param categoryId
+     * @return
+     */
+    @Override
+    public List<DishVO> listByCategoryId(Long categoryId) {
+        //同一个分类同时只有一个线程加载,其他线程等待加载结果
+        //加载在当前线程中执行,不在缓存的compute中等待redis和数据库,不会阻塞失效通知和其他分类
+        CompletableFuture<List<DishVO>> future = new CompletableFuture<>();
+        CompletableFuture<List<DishVO>> loading = localCache.asMap().putIfAbsent(categoryId, future);
+        if (loading != null) {
+            return join(loading);
+        }
+        try {
+            List<DishVO> list = load(categoryId);
+            future.complete(list);
+            if (list.isEmpty()) {
+                //没有菜品的分类不放入本地缓存,避免查询不存在的分类挤出常用分类
+                localCache.asMap().remove(categoryId, future);
+            }
+            return list;
+        } catch (RuntimeException e) {
+            //加载失败的future会自动从缓存中移除,下次重新加载
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private List<DishVO> join(CompletableFuture<List<DishVO>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 分类下的菜品修改后使该分类的缓存失效
+     *
+     * @param categoryId
+     */
+    @Override
+    public void evict(Long categoryId) {
+        stringRedisTemplate.opsForValue().increment(RedisConstent.DISH_VERSION_KEY_PREFIX + categoryId);
+        localCache.synchronous().invalidate(categoryId);
+        stringRedisTemplate.convertAndSend(RedisConstent.DISH_CACHE_CHANNEL, categoryId.toString());
+        //旧版本的缓存不会再被读取,立即删除而不是等待过期
+        String indexKey = RedisConstent.DISH_KEYS_KEY_PREFIX + categoryId;
+        Set<String> keys = stringRedisTemplate.opsForSet().members(indexKey);
+        if (keys != null && !keys.isEmpty()) {
+            unlink(new ArrayList<>(keys));
+        }
+        stringRedisTemplate.unlink(indexKey);
+    }
+
+    /**
+     * 使多个分类的缓存失效
+     *
+     * @param categoryIds
+     */
+    @Override
+    public void evict(Collection<Long> categoryIds) {
+        categoryIds.stream().filter(Objects::nonNull).distinct().forEach(this::evict);
+    }
+
+    /**
+     * 收到其他实例的失效通知,清理本地缓存
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String categoryId = new String(message.getBody(), StandardCharsets.UTF_8);
+        localCache.synchronous().invalidate(Long.valueOf(categoryId));
+    }
+
+    /**
+     * 本地缓存未命中时读取当前版本的redis缓存,redis也未命中时查询数据库
+     * @param categoryId
+     * @return
+     */
+    private List<DishVO> load(Long categoryId) {
+        String key;
+        Object cached;
+        try {
+            key = getRedisKey(categoryId);
+            cached = redisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            //redis不可用时直接查询数据库
+            log.warn("读取菜品缓存失败,分类id：{}", categoryId, e);
+            return query(categoryId);
+        }
+        if (cached instanceof DishCacheEntry) {
+            DishCacheEntry entry = (DishCacheEntry) cached;
+            if (shouldRefreshEarly(entry)) {
+                return refreshEarly(categoryId, key, entry);
+            }
+            return entry.getDishes();
+        }
+        return loadWithLock(categoryId, key);
+    }
+
+    /**
+     * redis未命中时只有拿到加载锁的实例查询数据库,其他实例等待缓存写入
+     * @param categoryId
+     * @param key
+     * @return
+     */
+    private List<DishVO> loadWithLock(Long categoryId, String key) {
+        if (!loadLockEnabled) {
+            return reload(categoryId, key);
+        }
+        String lockKey = RedisConstent.DISH_LOAD_LOCK_KEY_PREFIX + categoryId;
+        String token = UUID.randomUUID().toString();
+        Boolean locked;
+        try {
+            locked = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, LOAD_LOCK_TTL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.warn("获取菜品缓存加载锁失败,分类id：{}", categoryId, e);
+            return reload(categoryId, key);
+        }
+        if (!Boolean.TRUE.equals(locked)) {
+            List<DishVO> list = waitForLoad(key);
+            if (list != null) {
+                return list;
+            }
+            //加载锁的持有者超时未写入,自行查询
+            log.warn("等待菜品缓存加载超时,分类id：{}", categoryId);
+            return reload(categoryId, key);
+        }
+        try {
+            //拿到锁后再检查一次,其他实例可能刚写入缓存并释放了锁
+            Object cached = redisTemplate.opsForValue().get(key);
+            if (cached instanceof DishCacheEntry) {
+                return ((DishCacheEntry) cached).getDishes();
+            }
+            return reload(categoryId, key);
+        } finally {
+            unlock(lockKey, token);
+        }
+    }
+
+    /**
+     * 缓存接近过期时提前刷新,刷新期间其他线程和实例继续使用当前数据
+     * @param categoryId
+     * @param key
+     * @param entry
+     * @return
+     */
+    private List<DishVO> refreshEarly(Long categoryId, String key, DishCacheEntry entry) {
+        String lockKey = RedisConstent.DISH_LOAD_LOCK_KEY_PREFIX + categoryId;
+        String token = UUID.randomUUID().toString();
+        try {
+            if (loadLockEnabled && !Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .setIfAbsent(lockKey, token, LOAD_LOCK_TTL_MILLIS, TimeUnit.MILLISECONDS))) {
+                return entry.getDishes();
+            }
+            try {
+                return reload(categoryId, key);
+            } finally {
+                if (loadLockEnabled) {
+                    unlock(lockKey, token);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("提前刷新菜品缓存失败,分类id：{}", categoryId, e);
+            return entry.getDishes();
+        }
+    }
+
+    /**
+     * 按概率判断是否提前刷新(XFetch算法),越接近过期时间、加载越慢,提前刷新的概率越大
+     * 各实例在不同时间刷新,缓存不会在同一时刻过期
+     * @param entry
+     * @return
+     */
+    private boolean shouldRefreshEarly(DishCacheEntry entry) {
+        if (entry.getExpireTime() == null || entry.getLoadMillis() == null) {
+            return false;
+        }
+        long delta = Math.max(entry.getLoadMillis(), EARLY_REFRESH_MIN_DELTA_MILLIS);
+        double gap = -delta * EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= entry.getExpireTime();
+    }
+
+    /**
+     * 等待其他实例把菜品写入缓存
+     * @param key
+     * @return 超时未写入时返回null
+     */
+    private List<DishVO> waitForLoad(String key) {
+        long deadline = System.currentTimeMillis() + LOAD_WAIT_MILLIS;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(LOAD_WAIT_INTERVAL_MILLIS);
+                Object cached = redisTemplate.opsForValue().get(key);
+                if (cached instanceof DishCacheEntry) {
+                    return ((DishCacheEntry) cached).getDishes();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("等待菜品缓存加载失败,key：{}", key, e);
+        }
+        return null;
+    }
+
+    /**
+     * 查询数据库并写入redis,没有菜品的分类缓存时间较短
+     * @param categoryId
+     * @param key
+     * @return
+     */
+    private List<DishVO> reload(Long categoryId, String key) {
+        long begin = System.currentTimeMillis();
+        List<DishVO> list = query(categoryId);
+        long now = System.currentTimeMillis();
+        long ttlMinutes = list.isEmpty() ? EMPTY_CACHE_TTL_MINUTES : REDIS_CACHE_TTL_MINUTES;
+        DishCacheEntry entry = new DishCacheEntry(list, now - begin, now + TimeUnit.MINUTES.toMillis(ttlMinutes));
+        try {
+            redisTemplate.opsForValue().set(key, entry, ttlMinutes, TimeUnit.MINUTES);
+            //记录分类写入过的key,集合和缓存同时过期
+            String indexKey = RedisConstent.DISH_KEYS_KEY_PREFIX + categoryId;
+            stringRedisTemplate.opsForSet().add(indexKey, key);
+            stringRedisTemplate.expire(indexKey, REDIS_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.warn("写入菜品缓存失败,分类id：{}", categoryId, e);
+        }
+        return list;
+    }
+
+    private void unlock(String lockKey, String token) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(lockKey), token);
+        } catch (Exception e) {
+            //释放失败时锁会自动过期
+            log.warn("释放菜品缓存加载锁失败,key：{}", lockKey, e);
+        }
+    }
+
+    /**
+     * 查询数据库中分类下起售的菜品和口味
+     * @param categoryId
+     * @return
+     */
+    private List<DishVO> query(Long categoryId) {
+        Dish dish = Dish.builder()
+            .categoryId(categoryId)
+            .status(StatusConstant.ENABLE).build();
+        return dishService.listWithFlavor(dish);
+    }
+
+    /**
+     * 使用SCAN遍历菜品缓存的key,分批删除匹配的key
+     * @param keyPattern
+     * @return 删除的key数
+     */
+    private int unlinkByScan(Pattern keyPattern) {
+        ScanOptions options = ScanOptions.scanOptions()
+            .match(RedisConstent.USER_DISH_LIST_KEY_PREFIX + "*")
+            .count(SCAN_COUNT)
+            .build();
+        List<String> batch = new ArrayList<>();
+        int unlinked = 0;
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (!keyPattern.matcher(key).matches()) {
+                    continue;
+                }
+                batch.add(key);
+                if (batch.size() >= UNLINK_BATCH_SIZE) {
+                    unlinked += unlink(batch);
+                    batch.clear();
+                }
+            }
+        }
+        return unlinked + unlink(batch);
+    }
+
+    /**
+     * 分批异步删除key
+     * @param keys
+     * @return 删除的key数
+     */
+    private int unlink(List<String> keys) {
+        int unlinked = 0;
+        for (int i = 0; i < keys.size(); i += UNLINK_BATCH_SIZE) {
+            Long count = stringRedisTemplate.unlink(keys.subList(i, Math.min(i + UNLINK_BATCH_SIZE, keys.size())));
+            unlinked += count == null ? 0 : count.intValue();
+        }
+        return unlinked;
+    }
+
+    /**
+     * redis缓存的key,格式为 dish_分类id_v分类版本号
+     * @param categoryId
+     * @return
+     */
+    private String getRedisKey(Long categoryId) {
+        String version = stringRedisTemplate.opsForValue().get(RedisConstent.DISH_VERSION_KEY_PREFIX + categoryId);
+        return RedisConstent.USER_DISH_LIST_KEY_PREFIX + categoryId + "_v" + (version == null ? "0" : version);
+    }
+
+    /**
+     * redis中缓存的分类菜品,记录加载耗时和过期时间用于提前刷新
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DishCacheEntry {
+        private List<DishVO> dishes;
+        //查询数据库的耗时(毫秒)
+        private Long loadMillis;
+        //过期时间戳(毫秒)
+        private Long expireTime;
+    }
+}
@@ -15,9 +15,12 @@ import com.sky.mapper.SetmealDishMapper;
 import com.sky.result.PageResult;
 import com.sky.service.DishService;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import com.sky.vo.DishVO;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -106,13 +109,8 @@ public class DishServiceImpl implements DishService {
     public DishVO getByIdWithFlavor(Long id) {
         //获取菜品数据
         Dish dish = dishMapper.getById(id);
-        //获取菜品口味数据
-        List<DishFlavor> flavors = dishFlavorMapper.getByDishId(id);
-        //将菜品和口味数据封装到VO对象中
-        DishVO dishVO = new DishVO();
-        BeanUtils.copyProperties(dish, dishVO);
-        dishVO.setFlavors(flavors);
-        return dishVO;
+        //获取菜品口味数据并封装到VO对象中
+        return toDishVOWithFlavor(Collections.singletonList(dish)).get(0);
     }
 
     /**
@@ -151,6 +149,17 @@ public class DishServiceImpl implements DishService {
         return dishMapper.list(dish);
     }
 
+    /**
+     * 查询菜品所属的分类id
+     *
+     * @param ids
+     * @return
+     */
+    @Override
+    public List<Long> listCategoryIds(List<Long> ids) {
+        return dishMapper.getCategoryIdsByIds(ids);
+    }
+
     /**
      * 启用或禁用菜品
      *
@@ -170,20 +179,29 @@ public class DishServiceImpl implements DishService {
      */
     public List<DishVO> listWithFlavor(Dish dish) {
         List<Dish> dishList = dishMapper.list(dish);
+        return toDishVOWithFlavor(dishList);
+    }
 
+    /**
+     * 一次查询所有菜品的口味,按菜品id分组后封装到VO对象中
+     * @param dishList
+     * @return
+     */
+    private List<DishVO> toDishVOWithFlavor(List<Dish> dishList) {
         List<DishVO> dishVOList = new ArrayList<>();
+        if (dishList.isEmpty()) {
+            return dishVOList;
+        }
+        List<Long> dishIds = dishList.stream().map(Dish::getId).collect(Collectors.toList());
+        Map<Long, List<DishFlavor>> flavorMap = dishFlavorMapper.getByDishIds(dishIds).stream()
+            .collect(Collectors.groupingBy(DishFlavor::getDishId));
 
         for (Dish d : dishList) {
             DishVO dishVO = new DishVO();
             BeanUtils.copyProperties(d,dishVO);
-
-            //根据菜品id查询对应的口味
-            List<DishFlavor> flavors = dishFlavorMapper.getByDishId(d.getId());
-
-            dishVO.setFlavors(flavors);
+            dishVO.setFlavors(flavorMap.getOrDefault(d.getId(), new ArrayList<>()));
             dishVOList.add(dishVO);
         }
-
         return dishVOList;
     }
 }
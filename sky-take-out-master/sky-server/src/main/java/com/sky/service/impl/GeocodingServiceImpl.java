@@ -0,0 +1,240 @@
+package com.sky.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sky.constant.BaiduConstant;
+import com.sky.constant.MessageConstant;
+import com.sky.entity.AddressBook;
+import com.sky.exception.OrderBusinessException;
+import com.sky.service.GeocodingService;
+import com.sky.utils.GeoUtil.Location;
+import com.sky.utils.HttpClientUtil;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class GeocodingServiceImpl implements GeocodingService {
+
+    /**
+     * 缓存的收货地址数量上限,超出后淘汰最久未使用的地址
+     */
+    public static final int LOCATION_CACHE_SIZE = 10000;
+    public static final int DISTANCE_CACHE_SIZE = 2000;
+    /**
+     * 等待预计算的地址数量上限,超出后直接丢弃,下单时再同步计算
+     */
+    public static final int PREFETCH_QUEUE_CAPACITY = 256;
+
+    //百度地图api
+    @Value("${sky.baidu.ak}")
+    private String baiduAk;
+    //百度地图接口地址,可以指向本地的模拟服务
+    @Value("${sky.baidu.geocoding-url:" + BaiduConstant.BAIDU_API_GEOCODEING_URL + "}")
+    private String geocodingUrl;
+    @Value("${sky.baidu.direction-lite-url:" + BaiduConstant.BAIDU_API_DIRECTIONLITE_URL + "}")
+    private String directionLiteUrl;
+    //商家地址
+    @Value("${sky.shop.address}")
+    private String shopAddress;
+
+    //商家经纬度坐标,启动失败时在第一次使用时重新解析
+    private volatile Location shopLocation;
+    //收货地址文本 -> 经纬度坐标
+    private final Map<String, Location> locationCache = lruCache(LOCATION_CACHE_SIZE);
+    //收货地址文本 -> 驾车距离,只有靠近配送范围边界的地址才会查询
+    private final Map<String, Integer> distanceCache = lruCache(DISTANCE_CACHE_SIZE);
+    //预计算驾车距离的线程池
+    private ThreadPoolExecutor prefetchExecutor;
+
+    @PostConstruct
+    public void init() {
+        prefetchExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(PREFETCH_QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "geocoding-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+        try {
+            getShopLocation();
+        } catch (Exception e) {
+            log.warn("启动时解析商家地址失败,将在下单时重试：{}", shopAddress, e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取商家经纬度坐标
+     *
+     * @return
+     */
+    @Override
+    public Location getShopLocation() {
+        Location location = shopLocation;
+        if (location == null) {
+            synchronized (this) {
+                if (shopLocation == null) {
+                    shopLocation = geocode(shopAddress);
+                    log.info("商家经纬度坐标：{}", shopLocation);
+                }
+                location = shopLocation;
+            }
+        }
+        return location;
+    }
+
+    /**
+     * 获取收货地址的经纬度坐标
+     *
+     * @param addressBook
+     * @return
+     */
+    @Override
+    public Location getLocation(AddressBook addressBook) {
+        String address = normalize(addressBook);
+        Location location = locationCache.get(address);
+        if (location == null) {
+            location = geocode(address);
+            locationCache.put(address, location);
+        }
+        return location;
+    }
+
+    /**
+     * 获取商家到收货地址的驾车距离
+     *
+     * @param addressBook
+     * @return
+     */
+    @Override
+    public Integer getDeliveryDistance(AddressBook addressBook) {
+        String address = normalize(addressBook);
+        Integer distance = distanceCache.get(address);
+        if (distance == null) {
+            distance = getDrivingDistance(getShopLocation(), getLocation(addressBook));
+            distanceCache.put(address, distance);
+        }
+        return distance;
+    }
+
+    /**
+     * 异步预先解析收货地址的经纬度坐标
+     *
+     * @param addressBook
+     */
+    @Override
+    public void prefetch(AddressBook addressBook) {
+        if (addressBook == null || locationCache.containsKey(normalize(addressBook))) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                getLocation(addressBook);
+            } catch (Exception e) {
+                log.warn("预先解析收货地址失败：{}", normalize(addressBook), e);
+            }
+        });
+    }
+
+    /**
+     * 清除收货地址的缓存
+     *
+     * @param addressBook
+     */
+    @Override
+    public void evict(AddressBook addressBook) {
+        if (addressBook != null) {
+            String address = normalize(addressBook);
+            locationCache.remove(address);
+            distanceCache.remove(address);
+        }
+    }
+
+    /**
+     * 将地址簿拼接成完整地址并去掉空白字符,作为缓存的key
+     * @param addressBook
+     * @return
+     */
+    private static String normalize(AddressBook addressBook) {
+        StringBuilder address = new StringBuilder();
+        for (String part : new String[]{addressBook.getProvinceName(), addressBook.getCityName(),
+            addressBook.getDistrictName(), addressBook.getDetail()}) {
+            if (part != null) {
+                address.append(part);
+            }
+        }
+        return address.toString().replaceAll("\\s+", "");
+    }
+
+    /**
+     * 创建线程安全的LRU缓存
+     * @param maxSize
+     * @return
+     */
+    private static <V> Map<String, V> lruCache(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * 调用百度地图api获取地址的经纬度坐标
+     * @param address
+     * @return
+     */
+    private Location geocode(String address) {
+        Map<String, String> map = new HashMap<>();
+        map.put("address", address);
+        map.put("output", "json");
+        map.put("ak", baiduAk);
+        JSONObject response = JSONObject.parseObject(HttpClientUtil.doGet(geocodingUrl, map));
+        if (response == null || !"0".equals(response.getString("status"))) {
+            throw new OrderBusinessException(MessageConstant.BAIDU_API_ERROR);
+        }
+        //解析响应结果
+        JSONObject location = response.getJSONObject("result").getJSONObject("location");
+        return new Location(location.getDoubleValue("lat"), location.getDoubleValue("lng"));
+    }
+
+    /**
+     * 调用百度地图api获取两个坐标之间的驾车距离
+     * @param origin
+     * @param destination
+     * @return 距离(单位米)
+     */
+    private Integer getDrivingDistance(Location origin, Location destination) {
+        Map<String, String> map = new HashMap<>();
+        map.put("origin", origin.toString());
+        map.put("destination", destination.toString());
+        map.put("steps_info", "0");
+        map.put("ak", baiduAk);
+        //获取路线规划信息
+        JSONObject directionLiteJson = JSON.parseObject(HttpClientUtil.doGet(directionLiteUrl, map));
+        if (directionLiteJson == null || !"0".equals(directionLiteJson.getString("status"))) {
+            throw new OrderBusinessException(MessageConstant.BAIDU_API_ERROR);
+        }
+        //获取路线距离
+        JSONArray jsonArray = directionLiteJson.getJSONObject("result").getJSONArray("routes");
+        return jsonArray.getJSONObject(0).getInteger("distance");
+    }
+}
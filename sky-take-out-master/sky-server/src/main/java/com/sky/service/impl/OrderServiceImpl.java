@@ -1,11 +1,9 @@
 package com.sky.service.impl;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.github.pagehelper.Page;
 import com.github.pagehelper.PageHelper;
-import com.sky.constant.BaiduConstant;
 import com.sky.constant.MessageConstant;
 import com.sky.constant.RoleConstant;
 import com.sky.constant.ShopConstant;
@@ -19,6 +17,7 @@ import com.sky.dto.OrdersRejectionDTO;
 import com.sky.dto.OrdersSubmitDTO;
 import com.sky.entity.AddressBook;
 import com.sky.entity.OrderDetail;
+import com.sky.entity.OrderTransition;
 import com.sky.entity.Orders;
 import com.sky.entity.ShoppingCart;
 import com.sky.entity.User;
@@ -31,16 +30,23 @@ import com.sky.mapper.OrderMapper;
 import com.sky.mapper.ShoppingCartMapper;
 import com.sky.mapper.UserMapper;
 import com.sky.result.PageResult;
+import com.sky.service.BusinessStatsService;
+import com.sky.service.DeliveryRangeService;
 import com.sky.service.OrderService;
-import com.sky.utils.HttpClientUtil;
+import com.sky.service.OrderStatusCountService;
+import com.sky.service.OrderTimeoutService;
+import com.sky.utils.SnowflakeIdGenerator;
 import com.sky.utils.WeChatPayUtil;
 import com.sky.vo.OrderPaymentVO;
 import com.sky.vo.OrderStatisticsVO;
 import com.sky.vo.OrderSubmitVO;
 import com.sky.vo.OrderVO;
-import com.sky.websocket.WebSocketServer;
+import com.sky.websocket.WebSocketMessageBroker;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,11 +56,15 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 @Slf4j
 public class OrderServiceImpl implements OrderService {
+    //完整手机号的长度
+    private static final int PHONE_LENGTH = 11;
+    //分页游标中下单时间和订单id的分隔符
+    private static final String CURSOR_SEPARATOR = "_";
 
     @Autowired
     private OrderMapper orderMapper;
@@ -69,20 +79,28 @@ public class OrderServiceImpl implements OrderService {
     @Autowired
     private WeChatPayUtil weChatPayUtil;
     @Autowired
-    private WebSocketServer webSocketServer;
-    //百度地图api
-    @Value("${sky.baidu.ak}")
-    private String baiduAk;
-    //商家地址
-    @Value("${sky.shop.address}")
-    private String shopAddress;
+    private WebSocketMessageBroker webSocketMessageBroker;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private DeliveryRangeService deliveryRangeService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private SnowflakeIdGenerator orderNumberGenerator;
+    @Autowired
+    private OrderTimeoutService orderTimeoutService;
+    @Autowired
+    private OrderStatusCountService orderStatusCountService;
+    //手机号不足11位时是否按尾号查询
+    @Value("${sky.order.phone-suffix-search:false}")
+    private boolean phoneSuffixSearch;
     /**
      * 用户下单
      *
      * @param ordersSubmitDTO
      * @return
      */
-    @Transactional
     @Override
     public OrderSubmitVO submitOrder(OrdersSubmitDTO ordersSubmitDTO) {
         //处理各种业务异常(地址簿为空，购物车为空等)
@@ -90,13 +108,33 @@ public class OrderServiceImpl implements OrderService {
         if (addressBook == null) {
             throw new AddressBookBusinessException(MessageConstant.ADDRESS_BOOK_IS_NULL);
         }
-        //判断是否超出配送范围
-        String address =
-            addressBook.getProvinceName()+addressBook.getCityName()+ addressBook.getDistrictName() + addressBook.getDetail();
-        if(isOutOfRange(address))
+        //判断是否超出配送范围,在开启事务之前完成,远程调用不占用数据库连接
+        if(deliveryRangeService.isOutOfRange(addressBook))
         {
             throw new OrderBusinessException(MessageConstant.ORDER_DELIVERY_OUT_OF_RANGE);
         }
+        //在事务中写入订单数据
+        OrderSubmitVO orderSubmitVO = transactionTemplate.execute(status -> createOrder(ordersSubmitDTO, addressBook));
+        //事务提交后登记订单超时时间,超时未支付自动取消
+        orderTimeoutService.schedule(orderSubmitVO.getId(), orderSubmitVO.getOrderTime());
+        orderStatusCountService.statusChanged(orderSubmitVO.getOrderTime(), null, Orders.PENDING_PAYMENT);
+        //事务提交后再累加当天营业数据汇总的订单总数,并发下单不会在事务中等待同一行汇总数据的锁
+        try {
+            businessStatsService.orderSubmitted(Orders.builder().orderTime(orderSubmitVO.getOrderTime()).build());
+        } catch (Exception e) {
+            //订单已经提交,汇总数据由每天的对账任务修正
+            log.warn("累加营业数据汇总失败,订单id：{}", orderSubmitVO.getId(), e);
+        }
+        return orderSubmitVO;
+    }
+
+    /**
+     * 创建订单和订单明细并清空购物车
+     * @param ordersSubmitDTO
+     * @param addressBook
+     * @return
+     */
+    private OrderSubmitVO createOrder(OrdersSubmitDTO ordersSubmitDTO, AddressBook addressBook) {
         //获取当前用户的购物车数据
         ShoppingCart shoppingCart = new ShoppingCart();
         Long userId = BaseContext.getCurrentId();
@@ -111,8 +149,8 @@ public class OrderServiceImpl implements OrderService {
         orders.setOrderTime(LocalDateTime.now());
         orders.setPayStatus(Orders.UN_PAID);
         orders.setStatus(Orders.PENDING_PAYMENT);
-        // TODO: 2023/12/31 用时间戳生成订单号可靠吗
-        orders.setNumber(String.valueOf(System.currentTimeMillis()));
+        //使用雪花算法生成订单号,多个实例同一毫秒下单也不会重复
+        orders.setNumber(orderNumberGenerator.nextIdStr());
         orders.setConsignee(addressBook.getConsignee());
         orders.setAddress(addressBook.getDetail());
         orders.setPhone(addressBook.getPhone());
@@ -140,64 +178,6 @@ public class OrderServiceImpl implements OrderService {
         return orderSubmitVO;
     }
 
-    /**
-     * 调用百度地图api判断是否超出配送范围
-     * @param userAddress
-     * @return
-     */
-    private boolean isOutOfRange(String userAddress) {
-        Map map = new HashMap(){{
-            put("address", shopAddress);
-            put("output", "json");
-            put("ak", baiduAk);
-            }};
-        //获取商店经纬度坐标
-        String shopCOordinate = HttpClientUtil.doGet(BaiduConstant.BAIDU_API_GEOCODEING_URL, map);
-        JSONObject response = JSONObject.parseObject(shopCOordinate);
-        if(!response.getString("status").equals("0")){
-            throw new OrderBusinessException(MessageConstant.BAIDU_API_ERROR);
-        }
-        //解析响应结果
-        JSONObject location = response.getJSONObject("result").getJSONObject("location");
-        //经纬度坐标
-        String lat = location.getString("lat");
-        String lng = location.getString("lng");
-        String shopLngLat = lat + "," + lng;
-
-        //获取用户经纬度坐标
-        map.put("address",userAddress);
-        String userCoordinate = HttpClientUtil.doGet(BaiduConstant.BAIDU_API_GEOCODEING_URL, map);
-        response = JSONObject.parseObject(userCoordinate);
-        if(!response.getString("status").equals("0")){
-            throw new OrderBusinessException(MessageConstant.BAIDU_API_ERROR);
-        }
-        //解析响应结果
-        location = response.getJSONObject("result").getJSONObject("location");
-        //经纬度坐标
-        lat = location.getString("lat");
-        lng = location.getString("lng");
-        String userLngLat = lat + "," + lng;
-
-        map.put("origin", shopLngLat);
-        map.put("destination", userLngLat);
-        map.put("steps_info","0");
-        //获取路线规划信息
-        JSONObject directionLiteJson = JSON.parseObject(HttpClientUtil.doGet(BaiduConstant.BAIDU_API_DIRECTIONLITE_URL, map));
-        if(!directionLiteJson.getString("status").equals("0")){
-            throw new OrderBusinessException(MessageConstant.BAIDU_API_ERROR);
-        }
-        //解析响应结果
-        JSONObject result = directionLiteJson.getJSONObject("result");
-        //获取路线距离
-        JSONArray jsonArray = result.getJSONArray("routes");
-        Integer distance = jsonArray.getJSONObject(0).getInteger("distance");
-        //判断距离是否超出配送范围
-        if(distance > ShopConstant.DELIVERY_RANGE_METERS){
-            return true;
-        }
-        return false;
-    }
-
     /**
      * 订单支付
      *
@@ -243,16 +223,29 @@ public class OrderServiceImpl implements OrderService {
 
         // 根据订单号查询订单
         Orders ordersDB = orderMapper.getByNumber(outTradeNo);
+        if (ordersDB == null) {
+            throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
+        }
 
-        // 根据订单id更新订单的状态、支付方式、支付状态、结账时间
+        // 根据订单id更新订单的状态、支付状态、结账时间,只有待付款的订单才能修改
         Orders orders = Orders.builder()
-            .id(ordersDB.getId())
-            .status(Orders.TO_BE_CONFIRMED)
             .payStatus(Orders.PAID)
             .checkoutTime(LocalDateTime.now())
             .build();
-
-        orderMapper.update(orders);
+        Integer fromStatus = tryTransition(ordersDB.getId(), OrderTransition.PAY, orders);
+        if (fromStatus == null) {
+            //重复回调,或订单已经超时取消后才收到回调,不能恢复订单,也不重复推送
+            Orders current = orderMapper.getById(ordersDB.getId());
+            if (Orders.CANCELLED.equals(current.getStatus())) {
+                log.error("已取消的订单收到支付成功回调,需要退款,订单号：{}", outTradeNo);
+            } else {
+                log.info("订单已处理支付成功回调,忽略重复回调,订单号：{}", outTradeNo);
+            }
+            return;
+        }
+        statusChanged(ordersDB.getOrderTime(), fromStatus, OrderTransition.PAY);
+        //订单已支付,不再需要超时取消
+        orderTimeoutService.remove(ordersDB.getId());
 
         // TODO: 2024/1/1 暂时跳过微信支付接口，直接修改订单状态的代码
         //通过webSocket向客户端推送接单消息
@@ -262,7 +255,8 @@ public class OrderServiceImpl implements OrderService {
             put("content", "您有新的订单,请及时处理,"+"订单号: "+outTradeNo);
             }};
         String json = JSON.toJSONString(map);
-        webSocketServer.sendToAllClient(json);
+        //订单只属于默认店铺,只推送给该店铺的客户端
+        webSocketMessageBroker.sendToShop(ShopConstant.DEFAULT_SHOP_ID, json);
 
 
     }
@@ -276,17 +270,30 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public PageResult pageQuery(OrdersPageQueryDTO ordersPageQueryDTO, Integer roleType) {
-        //设置分页
-        PageHelper.startPage(ordersPageQueryDTO.getPage(), ordersPageQueryDTO.getPageSize());
+        //设置分页,游标分页时从游标之后的第一条开始查询,查询代价和页码无关
+        decodeCursor(ordersPageQueryDTO);
+        boolean cursorMode = ordersPageQueryDTO.getCursorTime() != null;
+        int pageNum = cursorMode ? 1 : ordersPageQueryDTO.getPage();
+        //游标分页只有客户端要求时才查询总数,避免每页都count游标之后的所有记录
+        boolean count = cursorMode ? Boolean.TRUE.equals(ordersPageQueryDTO.getCount())
+            : !Boolean.FALSE.equals(ordersPageQueryDTO.getCount());
+        PageHelper.startPage(pageNum, ordersPageQueryDTO.getPageSize(), count);
         if(roleType.equals(RoleConstant.USER)){
             //如果是用户查询订单，需要根据用户id查询
             ordersPageQueryDTO.setUserId(BaseContext.getCurrentId());
         }
+        //订单号和手机号按前缀匹配走索引,开启尾号查询时不完整的手机号按反转后的前缀匹配
+        String phone = ordersPageQueryDTO.getPhone();
+        ordersPageQueryDTO.setPhoneReversed(null);
+        if (phoneSuffixSearch && phone != null && !phone.isEmpty() && phone.length() < PHONE_LENGTH) {
+            ordersPageQueryDTO.setPhoneReversed(new StringBuilder(phone).reverse().toString());
+        }
         //分页条件查询
         Page<Orders> page = orderMapper.pageQuery(ordersPageQueryDTO);
         //封装返回结果
         List<OrderVO> orderVOList = new ArrayList<>();
         Long total = 0L;
+        String nextCursor = null;
         if(page != null && page.size() > 0){
             //如果是管理员查询订单，需要补充otherDishes字段信息,否则补充orderDetailList字段信息
             if (roleType.equals(RoleConstant.ADMIN)) {
@@ -295,8 +302,43 @@ public class OrderServiceImpl implements OrderService {
                 addOrderDetails(page, orderVOList);
             }
             total = page.getTotal();
+            //当前页已满时可能还有下一页,用最后一条订单的完整下单时间和id生成游标
+            if (page.size() >= ordersPageQueryDTO.getPageSize()) {
+                nextCursor = encodeCursor(page.get(page.size() - 1));
+            }
+        }
+        return new PageResult(total, orderVOList, nextCursor);
+    }
+
+    /**
+     * 生成分页游标,内容为下单时间(保留全部精度)和订单id
+     * @param orders
+     * @return
+     */
+    private String encodeCursor(Orders orders) {
+        String cursor = orders.getOrderTime() + CURSOR_SEPARATOR + orders.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析客户端传入的分页游标,设置游标对应的下单时间和订单id
+     * @param ordersPageQueryDTO
+     */
+    private void decodeCursor(OrdersPageQueryDTO ordersPageQueryDTO) {
+        ordersPageQueryDTO.setCursorTime(null);
+        ordersPageQueryDTO.setCursorId(null);
+        String cursor = ordersPageQueryDTO.getCursor();
+        if (cursor == null || cursor.isEmpty()) {
+            return;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int index = value.lastIndexOf(CURSOR_SEPARATOR);
+            ordersPageQueryDTO.setCursorTime(LocalDateTime.parse(value.substring(0, index)));
+            ordersPageQueryDTO.setCursorId(Long.valueOf(value.substring(index + 1)));
+        } catch (RuntimeException e) {
+            throw new OrderBusinessException(MessageConstant.ORDER_CURSOR_INVALID);
         }
-        return new PageResult(total, orderVOList);
     }
 
     /**
@@ -305,10 +347,9 @@ public class OrderServiceImpl implements OrderService {
      * @param orderVOList
      */
     private void addOrderDetails(Page<Orders> page, List<OrderVO> orderVOList) {
+        Map<Long, List<OrderDetail>> orderDetailMap = getOrderDetailMap(page);
         for (Orders orders : page) {
-            Long orderId = orders.getId();
-            //查询订单详情
-            List<OrderDetail> orderDetailList = orderDetailMapper.getByOrderId(orderId);
+            List<OrderDetail> orderDetailList = orderDetailMap.getOrDefault(orders.getId(), Collections.emptyList());
             //封装订单详情
             OrderVO orderVO = new OrderVO();
             BeanUtils.copyProperties(orders, orderVO);
@@ -323,12 +364,13 @@ public class OrderServiceImpl implements OrderService {
      * @param orderVOList
      */
     private void addOtherDishes(Page<Orders> page, List<OrderVO> orderVOList) {
+        Map<Long, List<OrderDetail>> orderDetailMap = getOrderDetailMap(page);
         for (Orders orders : page) {
             //封装订单基础信息
             OrderVO orderVO = new OrderVO();
             BeanUtils.copyProperties(orders, orderVO);
             //获取订单详情信息
-            List<OrderDetail> orderDetailList = orderDetailMapper.getByOrderId(orders.getId());
+            List<OrderDetail> orderDetailList = orderDetailMap.getOrDefault(orders.getId(), Collections.emptyList());
             //根据订单详情生成otherDishes字符串,并封装到orderVO中
             String otherDishes = getOtherDishes(orderDetailList);
             orderVO.setOrderDishes(otherDishes);
@@ -336,6 +378,17 @@ public class OrderServiceImpl implements OrderService {
         }
     }
 
+    /**
+     * 一次查询当前页所有订单的订单详情,并按订单id分组
+     * @param page
+     * @return
+     */
+    private Map<Long, List<OrderDetail>> getOrderDetailMap(Page<Orders> page) {
+        List<Long> orderIds = page.stream().map(Orders::getId).collect(Collectors.toList());
+        return orderDetailMapper.getByOrderIds(orderIds).stream()
+            .collect(Collectors.groupingBy(OrderDetail::getOrderId));
+    }
+
     /**
      * 根据订单详情生成otherDishes字符串
      * @param orderDetailList
@@ -373,29 +426,20 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public void userCancelById(Long id) {
-        //根据id查询订单
-        Orders ordersDB = orderMapper.getById(id);
-        //判断订单是否存在
-        if (ordersDB == null) {
-            throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
-        }
-        //如果订单状态到达商家接单以后的阶段，不能直接取消订单
-        if (ordersDB.getStatus() >= Orders.CONFIRMED) {
-            throw new OrderBusinessException(MessageConstant.ORDER_STATUS_ERROR);
-        }
         // TODO: 2024/1/1 暂时跳过微信退款接口，直接修改订单状态的代码
         log.warn("跳过了微信退款功能");
-//        weChatRefundVerify(ordersDB);
-        //修改订单状态为已取消,并设置取消原因和取消时间
+        //修改订单状态为已取消,并设置取消原因和取消时间,商家接单以后的订单不能直接取消
         Orders orders = Orders.builder()
-            .id(id)
-            .status(Orders.CANCELLED)
             .cancelReason(MessageConstant.ORDER_CANCELLED_BY_USER)
             .cancelTime(LocalDateTime.now())
-            .payStatus(ordersDB.getPayStatus())
             .build();
-        //更新订单
-        orderMapper.update(orders);
+//        weChatRefundVerify(orderMapper.getById(id), orders);
+        Integer fromStatus = transition(id, OrderTransition.USER_CANCEL, orders);
+        //取消成功后查询下单时间,用于累加营业数据汇总和订单状态计数
+        Orders ordersDB = orderMapper.getById(id);
+        businessStatsService.orderCancelled(ordersDB);
+        statusChanged(ordersDB.getOrderTime(), fromStatus, OrderTransition.USER_CANCEL);
+        orderTimeoutService.remove(id);
     }
 
     /**
@@ -429,10 +473,11 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public OrderStatisticsVO statistics() {
-        //分别查询待接单,待派送,派送中的订单数量
-        Integer toBeConfirmed = orderMapper.countByStatus(Orders.TO_BE_CONFIRMED);
-        Integer confirmed = orderMapper.countByStatus(Orders.CONFIRMED);
-        Integer deliveryInProgress = orderMapper.countByStatus(Orders.DELIVERY_IN_PROGRESS);
+        //分别获取待接单,待派送,派送中的订单数量,读取内存中的计数
+        Map<Integer, Integer> activeCounts = orderStatusCountService.getActiveCounts();
+        Integer toBeConfirmed = activeCounts.getOrDefault(Orders.TO_BE_CONFIRMED, 0);
+        Integer confirmed = activeCounts.getOrDefault(Orders.CONFIRMED, 0);
+        Integer deliveryInProgress = activeCounts.getOrDefault(Orders.DELIVERY_IN_PROGRESS, 0);
         //封装返回结果
         return OrderStatisticsVO.builder()
             .toBeConfirmed(toBeConfirmed)
@@ -447,11 +492,9 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public void adminConfirm(OrdersConfirmDTO ordersConfirmDTO) {
-        Orders orders = Orders.builder()
-            .id(ordersConfirmDTO.getId())
-            .status(Orders.CONFIRMED)
-            .build();
-        orderMapper.update(orders);
+        Integer fromStatus = transition(ordersConfirmDTO.getId(), OrderTransition.CONFIRM, new Orders());
+        //不查询下单时间,今天的订单状态计数由定期重新统计修正
+        statusChanged(null, fromStatus, OrderTransition.CONFIRM);
     }
 
     /**
@@ -465,23 +508,18 @@ public class OrderServiceImpl implements OrderService {
         if(ordersRejectionDTO.getRejectionReason().isEmpty()){
             throw new OrderBusinessException(MessageConstant.ORDER_REJECTION_REASON_IS_NULL);
         }
-        Orders ordersDB = orderMapper.getById(ordersRejectionDTO.getId());
-        //只有订单为待接单才能执行拒单操作
-        if(!ordersDB.getStatus().equals(Orders.TO_BE_CONFIRMED)){
-            throw new OrderBusinessException(MessageConstant.ORDER_STATUS_ERROR);
-        }
         // TODO: 2024/1/2 暂时跳过微信退款接口，直接修改订单状态的代码
         log.warn("跳过了微信退款功能");
-//        weChatRefundVerify(ordersDB);
-        //修改订单状态为已取消,并设置取消原因和取消时间
+        //修改订单状态为已取消,并设置拒单原因和取消时间,只有待接单的订单才能拒单
         Orders orders = Orders.builder()
-            .id(ordersRejectionDTO.getId())
-            .status(Orders.CANCELLED)
             .rejectionReason(ordersRejectionDTO.getRejectionReason())
             .cancelTime(LocalDateTime.now())
-            .payStatus(ordersDB.getPayStatus())
             .build();
-        orderMapper.update(orders);
+//        weChatRefundVerify(orderMapper.getById(ordersRejectionDTO.getId()), orders);
+        Integer fromStatus = transition(ordersRejectionDTO.getId(), OrderTransition.REJECT, orders);
+        Orders ordersDB = orderMapper.getById(ordersRejectionDTO.getId());
+        businessStatsService.orderCancelled(ordersDB);
+        statusChanged(ordersDB.getOrderTime(), fromStatus, OrderTransition.REJECT);
     }
 
 
@@ -492,20 +530,19 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public void adminCancel(OrdersCancelDTO ordersCancelDTO) {
-        //根据id查询订单
-        Orders ordersDB = orderMapper.getById(ordersCancelDTO.getId());
         // TODO: 2024/1/2 暂时跳过微信退款接口，直接修改订单状态的代码
         log.warn("跳过了微信退款功能");
-//        weChatRefundVerify(ordersDB);
         //修改订单状态为已取消,并设置取消原因和取消时间
         Orders orders = Orders.builder()
-            .id(ordersCancelDTO.getId())
-            .status(Orders.CANCELLED)
             .cancelReason(ordersCancelDTO.getCancelReason())
             .cancelTime(LocalDateTime.now())
-            .payStatus(ordersDB.getPayStatus())
             .build();
-        orderMapper.update(orders);
+//        weChatRefundVerify(orderMapper.getById(ordersCancelDTO.getId()), orders);
+        Integer fromStatus = transition(ordersCancelDTO.getId(), OrderTransition.ADMIN_CANCEL, orders);
+        Orders ordersDB = orderMapper.getById(ordersCancelDTO.getId());
+        businessStatsService.orderCancelled(ordersDB);
+        statusChanged(ordersDB.getOrderTime(), fromStatus, OrderTransition.ADMIN_CANCEL);
+        orderTimeoutService.remove(ordersCancelDTO.getId());
     }
 
     /**
@@ -515,17 +552,10 @@ public class OrderServiceImpl implements OrderService {
      */
     @Override
     public void delivery(Long id) {
-        //根据id查询订单
-        Orders ordersDB = orderMapper.getById(id);
-        //只有订单为待派送才能执行派送操作
-        if(ordersDB == null || !ordersDB.getStatus().equals(Orders.CONFIRMED)){
-            throw new OrderBusinessException(MessageConstant.ORDER_STATUS_ERROR);
-        }
-        Orders orders = Orders.builder()
-            .id(id)
-            .status(Orders.DELIVERY_IN_PROGRESS)
-            .build();
-        orderMapper.update(orders);
+        //只有待派送的订单才能派送
+        Integer fromStatus = transition(id, OrderTransition.DELIVER, new Orders());
+        //不查询下单时间,今天的订单状态计数由定期重新统计修正
+        statusChanged(null, fromStatus, OrderTransition.DELIVER);
     }
     /**
      * 完成订单
@@ -533,18 +563,64 @@ public class OrderServiceImpl implements OrderService {
      * @param id
      */
     public void complete(Long id) {
-        // 根据id查询订单
+        //只有派送中的订单才能完成
+        Integer fromStatus = transition(id, OrderTransition.COMPLETE, new Orders());
+        //累加营业数据汇总的有效订单数和营业额
         Orders ordersDB = orderMapper.getById(id);
+        businessStatsService.orderCompleted(ordersDB);
+        statusChanged(ordersDB.getOrderTime(), fromStatus, OrderTransition.COMPLETE);
+    }
 
-        // 校验订单是否存在，并且状态为4
-        if (ordersDB == null || !ordersDB.getStatus().equals(Orders.DELIVERY_IN_PROGRESS)) {
+    /**
+     * 按状态转换修改订单状态,一条update语句同时完成状态校验和修改,并发修改同一订单时只有一个成功
+     * 需要修改的取消原因等字段由orders传入
+     * @param id
+     * @param transition
+     * @param orders
+     * @return 修改前的状态
+     */
+    private Integer transition(Long id, OrderTransition transition, Orders orders) {
+        Integer fromStatus = tryTransition(id, transition, orders);
+        if (fromStatus == null) {
+            //修改失败时才查询订单,区分订单不存在和状态不允许修改
+            if (orderMapper.getById(id) == null) {
+                throw new OrderBusinessException(MessageConstant.ORDER_NOT_FOUND);
+            }
             throw new OrderBusinessException(MessageConstant.ORDER_STATUS_ERROR);
         }
-        Orders orders = Orders.builder()
-            .id(id)
-            .status(Orders.COMPLETED)
-            .build();
-        orderMapper.update(orders);
+        return fromStatus;
+    }
+
+    /**
+     * 按状态转换修改订单状态,修改前不查询订单
+     * @param id
+     * @param transition
+     * @param orders
+     * @return 修改前的状态,订单不存在或当前状态不允许转换时返回null
+     */
+    private Integer tryTransition(Long id, OrderTransition transition, Orders orders) {
+        orders.setStatus(transition.getToStatus());
+        Integer rows = orderMapper.updateStatusByIdAndStatus(id, transition.getFromStatuses(), orders);
+        if (rows == 0) {
+            return null;
+        }
+        //只有一个允许修改的状态时就是修改前的状态,有多个时使用update语句返回的状态
+        List<Integer> fromStatuses = transition.getFromStatuses();
+        return fromStatuses.size() == 1 ? fromStatuses.get(0) : orders.getFromStatus();
+    }
+
+    /**
+     * 状态转换成功后加减订单状态计数
+     * @param orderTime 下单时间,为null时只修改进行中的订单计数
+     * @param fromStatus 修改前的状态
+     * @param transition
+     */
+    private void statusChanged(LocalDateTime orderTime, Integer fromStatus, OrderTransition transition) {
+        if (fromStatus == null) {
+            //没有取得修改前的状态时不加减,由定期重新统计修正
+            return;
+        }
+        orderStatusCountService.statusChanged(orderTime, fromStatus, transition.getToStatus());
     }
 
     /**
@@ -566,14 +642,16 @@ public class OrderServiceImpl implements OrderService {
             put("content", "用户催单,请及时处理,"+"订单号: "+ordersDB.getNumber());
             }};
         String json = JSON.toJSONString(map);
-        webSocketServer.sendToAllClient(json);
+        //订单只属于默认店铺,只推送给该店铺的客户端
+        webSocketMessageBroker.sendToShop(ShopConstant.DEFAULT_SHOP_ID, json);
     }
 
     /**
      * 校验是否应当退款并处理退款
      * @param ordersDB
+     * @param orders 订单的修改数据,退款后设置支付状态
      */
-    private void weChatRefundVerify(Orders ordersDB) {
+    private void weChatRefundVerify(Orders ordersDB, Orders orders) {
         //如果订单支付状态为已支付，需要执行退款操作
         if(ordersDB.getPayStatus().equals(Orders.PAID)){
             try {
@@ -588,7 +666,7 @@ public class OrderServiceImpl implements OrderService {
                 throw new OrderBusinessException(MessageConstant.ORDER_REFUND_ERROR);
             }
             //修改订单支付状态为退款
-            ordersDB.setPayStatus(Orders.REFUND);
+            orders.setPayStatus(Orders.REFUND);
         }
     }
 }
@@ -0,0 +1,199 @@
+package com.sky.service.impl;
+
+import com.sky.constant.RedisConstent;
+import com.sky.dto.OrderStatusCountDTO;
+import com.sky.entity.Orders;
+import com.sky.mapper.OrderMapper;
+import com.sky.service.OrderStatusCountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单状态计数
+ * 计数保存在redis的hash中,所有实例共享,订单状态变化时按修改前后的状态加减,不查询数据库
+ * 定时任务定期重新统计修正偏差,计数不存在(首次启动或跨天)时读取方同步统计一次
+ */
+@Service
+@Slf4j
+public class OrderStatusCountServiceImpl implements OrderStatusCountService {
+
+    //计数的过期时间,定期重新统计时刷新
+    private static final long COUNT_TTL_HOURS = 48;
+    //进行中的订单状态
+    private static final List<Integer> ACTIVE_STATUSES =
+        Arrays.asList(Orders.TO_BE_CONFIRMED, Orders.CONFIRMED, Orders.DELIVERY_IN_PROGRESS);
+    //全部订单状态
+    private static final List<Integer> ALL_STATUSES = Arrays.asList(Orders.PENDING_PAYMENT, Orders.TO_BE_CONFIRMED,
+        Orders.CONFIRMED, Orders.DELIVERY_IN_PROGRESS, Orders.COMPLETED, Orders.CANCELLED);
+    //计数存在时才加减,不存在时等待重新统计,避免只有增量的计数被当作完整计数
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('exists', KEYS[1]) == 1 then return redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2]) else return 0 end",
+        Long.class);
+
+    @Autowired
+    private OrderMapper orderMapper;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 待接单、待派送、派送中的订单数
+     *
+     * @return
+     */
+    @Override
+    public Map<Integer, Integer> getActiveCounts() {
+        return read(RedisConstent.ORDER_STATUS_COUNT_ACTIVE_KEY, null, ACTIVE_STATUSES);
+    }
+
+    /**
+     * 今天下单的订单按状态分组的订单数
+     *
+     * @return
+     */
+    @Override
+    public Map<Integer, Integer> getTodayCounts() {
+        LocalDate today = LocalDate.now();
+        return read(dayKey(today), today.atStartOfDay(), null);
+    }
+
+    /**
+     * 订单状态变化后加减计数
+     *
+     * @param orderTime
+     * @param fromStatus
+     * @param toStatus
+     */
+    @Override
+    public void statusChanged(LocalDateTime orderTime, Integer fromStatus, Integer toStatus) {
+        Orders orders = Orders.builder().orderTime(orderTime).status(fromStatus).build();
+        statusChanged(Collections.singletonList(orders), toStatus);
+    }
+
+    /**
+     * 多个订单状态变化后加减计数,同一个计数的变化合并后写入
+     *
+     * @param ordersList
+     * @param toStatus
+     */
+    @Override
+    public void statusChanged(List<Orders> ordersList, Integer toStatus) {
+        LocalDate today = LocalDate.now();
+        String todayKey = dayKey(today);
+        //计数的key -> 订单状态 -> 变化量
+        Map<String, Map<Integer, Long>> deltas = new HashMap<>();
+        for (Orders orders : ordersList) {
+            Integer fromStatus = orders.getStatus();
+            if (ACTIVE_STATUSES.contains(fromStatus)) {
+                addDelta(deltas, RedisConstent.ORDER_STATUS_COUNT_ACTIVE_KEY, fromStatus, -1);
+            }
+            if (ACTIVE_STATUSES.contains(toStatus)) {
+                addDelta(deltas, RedisConstent.ORDER_STATUS_COUNT_ACTIVE_KEY, toStatus, 1);
+            }
+            //只有今天下单的订单影响今天的计数
+            if (orders.getOrderTime() != null && today.equals(orders.getOrderTime().toLocalDate())) {
+                if (fromStatus != null) {
+                    addDelta(deltas, todayKey, fromStatus, -1);
+                }
+                addDelta(deltas, todayKey, toStatus, 1);
+            }
+        }
+        try {
+            deltas.forEach((key, statusDeltas) -> statusDeltas.forEach((status, delta) -> {
+                if (delta != 0) {
+                    stringRedisTemplate.execute(INCREMENT_SCRIPT, Collections.singletonList(key),
+                        status.toString(), delta.toString());
+                }
+            }));
+        } catch (Exception e) {
+            //加减失败时由定期重新统计修正
+            log.warn("更新订单状态计数失败", e);
+        }
+    }
+
+    /**
+     * 根据数据库重新统计进行中的订单和今天的订单
+     */
+    @Override
+    public void reconcile() {
+        LocalDate today = LocalDate.now();
+        write(RedisConstent.ORDER_STATUS_COUNT_ACTIVE_KEY, ACTIVE_STATUSES,
+            toMap(orderMapper.countGroupByStatus(null, ACTIVE_STATUSES)));
+        write(dayKey(today), ALL_STATUSES, toMap(orderMapper.countGroupByStatus(today.atStartOfDay(), null)));
+    }
+
+    /**
+     * 读取计数,计数不存在时同步统计一次,redis不可用时直接查询数据库
+     * @param key
+     * @param beginTime
+     * @param statuses
+     * @return
+     */
+    private Map<Integer, Integer> read(String key, LocalDateTime beginTime, List<Integer> statuses) {
+        try {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+            if (entries.isEmpty()) {
+                synchronized (this) {
+                    entries = stringRedisTemplate.opsForHash().entries(key);
+                    if (entries.isEmpty()) {
+                        reconcile();
+                        entries = stringRedisTemplate.opsForHash().entries(key);
+                    }
+                }
+            }
+            Map<Integer, Integer> countMap = new HashMap<>();
+            entries.forEach((status, count) ->
+                countMap.put(Integer.valueOf(status.toString()), Math.max(Integer.parseInt(count.toString()), 0)));
+            return Collections.unmodifiableMap(countMap);
+        } catch (Exception e) {
+            log.warn("读取订单状态计数失败,查询数据库", e);
+            return toMap(orderMapper.countGroupByStatus(beginTime, statuses));
+        }
+    }
+
+    /**
+     * 写入完整的计数,先写入临时key再改名,替换过程中读取方不会读到不完整的计数
+     * @param key
+     * @param statuses 需要写入的状态,没有订单的状态写入0
+     * @param countMap
+     */
+    private void write(String key, List<Integer> statuses, Map<Integer, Integer> countMap) {
+        Map<String, String> fields = new HashMap<>();
+        for (Integer status : statuses) {
+            fields.put(status.toString(), String.valueOf(countMap.getOrDefault(status, 0)));
+        }
+        String tempKey = key + ":" + UUID.randomUUID();
+        stringRedisTemplate.opsForHash().putAll(tempKey, fields);
+        stringRedisTemplate.expire(tempKey, COUNT_TTL_HOURS, TimeUnit.HOURS);
+        stringRedisTemplate.rename(tempKey, key);
+    }
+
+    private void addDelta(Map<String, Map<Integer, Long>> deltas, String key, Integer status, long delta) {
+        deltas.computeIfAbsent(key, k -> new HashMap<>()).merge(status, delta, Long::sum);
+    }
+
+    private String dayKey(LocalDate date) {
+        return RedisConstent.ORDER_STATUS_COUNT_DAY_KEY_PREFIX + date;
+    }
+
+    private Map<Integer, Integer> toMap(List<OrderStatusCountDTO> counts) {
+        Map<Integer, Integer> countMap = new HashMap<>();
+        for (OrderStatusCountDTO count : counts) {
+            countMap.put(count.getStatus(), count.getCount());
+        }
+        return Collections.unmodifiableMap(countMap);
+    }
+}
@@ -0,0 +1,283 @@
+package com.sky.service.impl;
+
+import com.sky.constant.MessageConstant;
+import com.sky.constant.RedisConstent;
+import com.sky.entity.Orders;
+import com.sky.mapper.OrderMapper;
+import com.sky.service.BusinessStatsService;
+import com.sky.service.OrderStatusCountService;
+import com.sky.service.OrderTimeoutService;
+import com.sky.task.OrderTask;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 待支付订单超时取消
+ * 超时时间保存在redis有序集合中,本实例用时间轮在超时时间到达时取消订单,重启后从redis恢复
+ * 多个实例都可能登记同一个订单,从有序集合中删除成功的实例负责取消
+ */
+@Service
+@Slf4j
+public class OrderTimeoutServiceImpl implements OrderTimeoutService {
+
+    //时间轮每格的时长
+    private static final long TICK_MILLIS = 100;
+    //时间轮的格数
+    private static final int TICKS_PER_WHEEL = 512;
+    //批量取消订单的时间间隔
+    private static final long CANCEL_INTERVAL_MILLIS = 1000;
+    //每次批量取消的最大订单数
+    private static final int CANCEL_BATCH_SIZE = 500;
+    //兜底任务只处理超时一段时间后仍未取消的订单,避免和时间轮重复处理
+    private static final long SWEEP_GRACE_MILLIS = 10000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OrderMapper orderMapper;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private OrderStatusCountService orderStatusCountService;
+
+    //本实例登记的订单超时任务
+    private final Map<Long, Timeout> timeoutMap = new ConcurrentHashMap<>();
+    //已经到达超时时间,等待批量取消的订单id
+    private final Queue<Long> expiredQueue = new ConcurrentLinkedQueue<>();
+    private HashedWheelTimer timer;
+    private ScheduledExecutorService cancelExecutor;
+
+    @PostConstruct
+    public void init() {
+        timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "order-timeout-wheel");
+            thread.setDaemon(true);
+            return thread;
+        }, TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        //时间轮线程只负责登记到期的订单,取消订单在单独的线程中批量执行
+        cancelExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-timeout-cancel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cancelExecutor.scheduleWithFixedDelay(this::cancelExpired, CANCEL_INTERVAL_MILLIS, CANCEL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        recover();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        timer.stop();
+        cancelExecutor.shutdown();
+    }
+
+    /**
+     * 登记待支付订单,到达超时时间后自动取消
+     *
+     * @param orderId
+     * @param orderTime
+     */
+    @Override
+    public void schedule(Long orderId, LocalDateTime orderTime) {
+        long deadline = orderTime.plusMinutes(OrderTask.ORDER_TIME_OUT_MINUTES)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try {
+            stringRedisTemplate.opsForZSet().add(RedisConstent.ORDER_TIMEOUT_KEY, orderId.toString(), deadline);
+        } catch (Exception e) {
+            //redis不可用时由兜底任务扫描数据库取消
+            log.error("登记订单超时时间失败,订单id：{}", orderId, e);
+            return;
+        }
+        addTimeout(orderId, deadline);
+    }
+
+    /**
+     * 订单已支付或已取消,不再需要超时取消
+     *
+     * @param orderId
+     */
+    @Override
+    public void remove(Long orderId) {
+        Timeout timeout = timeoutMap.remove(orderId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(RedisConstent.ORDER_TIMEOUT_KEY, orderId.toString());
+        } catch (Exception e) {
+            //超时取消只修改待支付的订单,残留的记录不会影响已支付的订单
+            log.warn("删除订单超时时间失败,订单id：{}", orderId, e);
+        }
+    }
+
+    /**
+     * 取消已经超时但还没有被取消的订单,用于兜底
+     *
+     * @return 取消的订单数
+     */
+    @Override
+    public int sweepExpired() {
+        int cancelled = 0;
+        while (true) {
+            long maxDeadline = System.currentTimeMillis() - SWEEP_GRACE_MILLIS;
+            Set<String> members = stringRedisTemplate.opsForZSet()
+                .rangeByScore(RedisConstent.ORDER_TIMEOUT_KEY, 0, maxDeadline, 0, CANCEL_BATCH_SIZE);
+            if (members == null || members.isEmpty()) {
+                return cancelled;
+            }
+            List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+            cancelled += cancelOwned(ids);
+            if (members.size() < CANCEL_BATCH_SIZE) {
+                return cancelled;
+            }
+        }
+    }
+
+    /**
+     * 批量取消仍处于待支付状态的超时订单
+     *
+     * @param ids
+     * @return 取消的订单数
+     */
+    @Override
+    public int cancelTimeoutOrders(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<Orders> cancelled = transactionTemplate.execute(status -> {
+            //先锁定仍处于待支付状态的订单,确定哪些订单会被取消,再累加营业数据汇总
+            List<Orders> ordersList = orderMapper.getByIdsAndStatusForUpdate(ids, Orders.PENDING_PAYMENT);
+            if (ordersList.isEmpty()) {
+                return ordersList;
+            }
+            List<Long> pendingIds = ordersList.stream().map(Orders::getId).collect(Collectors.toList());
+            Orders cancelOrders = Orders.builder()
+                .status(Orders.CANCELLED)
+                .cancelReason(MessageConstant.ORDER_TIMEOUT)
+                .cancelTime(LocalDateTime.now())
+                .build();
+            orderMapper.updateStatusByIdsAndStatus(pendingIds, Orders.PENDING_PAYMENT, cancelOrders);
+            for (Orders orders : ordersList) {
+                businessStatsService.orderCancelled(orders);
+            }
+            return ordersList;
+        });
+        if (cancelled == null || cancelled.isEmpty()) {
+            return 0;
+        }
+        //订单已被行锁锁定,查询到的订单全部被取消
+        orderStatusCountService.statusChanged(cancelled, Orders.CANCELLED);
+        return cancelled.size();
+    }
+
+    /**
+     * 从redis恢复重启前登记的订单
+     */
+    private void recover() {
+        Set<ZSetOperations.TypedTuple<String>> tuples;
+        try {
+            tuples = stringRedisTemplate.opsForZSet().rangeWithScores(RedisConstent.ORDER_TIMEOUT_KEY, 0, -1);
+        } catch (Exception e) {
+            //恢复失败时由兜底任务取消
+            log.error("恢复订单超时任务失败", e);
+            return;
+        }
+        if (tuples == null) {
+            return;
+        }
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            addTimeout(Long.valueOf(tuple.getValue()), tuple.getScore().longValue());
+        }
+        log.info("恢复订单超时任务{}个", tuples.size());
+    }
+
+    private void addTimeout(Long orderId, long deadline) {
+        long delay = Math.max(0, deadline - System.currentTimeMillis());
+        Timeout timeout = timer.newTimeout(t -> {
+            timeoutMap.remove(orderId, t);
+            expiredQueue.offer(orderId);
+        }, delay, TimeUnit.MILLISECONDS);
+        Timeout old = timeoutMap.put(orderId, timeout);
+        if (old != null) {
+            old.cancel();
+        }
+    }
+
+    /**
+     * 批量取消时间轮中已经到期的订单
+     */
+    private void cancelExpired() {
+        while (!expiredQueue.isEmpty()) {
+            List<Long> ids = new ArrayList<>();
+            Long id;
+            while (ids.size() < CANCEL_BATCH_SIZE && (id = expiredQueue.poll()) != null) {
+                ids.add(id);
+            }
+            try {
+                int cancelled = cancelOwned(ids);
+                if (cancelled > 0) {
+                    log.info("取消超时订单{}个", cancelled);
+                }
+            } catch (Exception e) {
+                //失败的订单仍保留在redis中,由兜底任务重试
+                log.error("取消超时订单失败", e);
+            }
+        }
+    }
+
+    /**
+     * 从redis删除订单超时时间,只取消删除成功的订单,避免多个实例重复处理
+     * @param ids
+     * @return
+     */
+    private int cancelOwned(List<Long> ids) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = RedisConstent.ORDER_TIMEOUT_KEY.getBytes(StandardCharsets.UTF_8);
+            for (Long id : ids) {
+                connection.zRem(key, id.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<Long> ownedIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (Long.valueOf(1).equals(results.get(i))) {
+                ownedIds.add(ids.get(i));
+            }
+        }
+        try {
+            return cancelTimeoutOrders(ownedIds);
+        } catch (RuntimeException e) {
+            //取消失败时放回redis,由兜底任务重试
+            long now = System.currentTimeMillis();
+            for (Long id : ownedIds) {
+                stringRedisTemplate.opsForZSet().add(RedisConstent.ORDER_TIMEOUT_KEY, id.toString(), now);
+            }
+            throw e;
+        }
+    }
+}
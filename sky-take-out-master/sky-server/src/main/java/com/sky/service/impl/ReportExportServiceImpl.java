@@ -0,0 +1,250 @@
+package com.sky.service.impl;
+
+import com.sky.constant.MessageConstant;
+import com.sky.exception.ReportBusinessException;
+import com.sky.properties.ReportProperties;
+import com.sky.service.ReportExportService;
+import com.sky.service.ReportService;
+import com.sky.vo.ReportExportJobVO;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+@Service
+@Slf4j
+public class ReportExportServiceImpl implements ReportExportService {
+
+    @Autowired
+    private ReportService reportService;
+    @Autowired
+    private ReportProperties reportProperties;
+
+    //执行导出任务的有界线程池,避免导出占用tomcat线程
+    private ThreadPoolExecutor executor;
+    //导出文件存放目录
+    private Path exportDir;
+    //任务id -> 导出任务
+    private final Map<String, ExportJob> jobMap = new ConcurrentHashMap<>();
+    //日期区间 -> 未完成的导出任务,用于合并相同的导出请求
+    private final Map<String, ExportJob> unfinishedJobMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        exportDir = Paths.get(reportProperties.getExportDir());
+        Files.createDirectories(exportDir);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        executor = new ThreadPoolExecutor(
+            reportProperties.getExportThreads(), reportProperties.getExportThreads(),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(reportProperties.getExportQueueCapacity()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "report-export-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        log.info("报表异步导出线程池初始化完成,导出目录：{}", exportDir);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交营业数据报表异步导出任务
+     *
+     * @param begin
+     * @param end
+     * @return
+     */
+    @Override
+    public ReportExportJobVO submit(LocalDate begin, LocalDate end) {
+        //未指定日期区间时默认导出近30天的营业数据
+        if (begin == null || end == null) {
+            end = LocalDate.now().minusDays(1);
+            begin = end.minusDays(ReportServiceImpl.EXPORT_DEFAULT_DAYS - 1);
+        }
+        reportService.checkExportDateRange(begin, end);
+
+        //相同日期区间已有未完成的任务时直接返回该任务
+        String key = begin + "_" + end;
+        LocalDate jobBegin = begin;
+        LocalDate jobEnd = end;
+        ExportJob[] created = new ExportJob[1];
+        ExportJob job = unfinishedJobMap.computeIfAbsent(key, k -> {
+            String jobId = UUID.randomUUID().toString().replace("-", "");
+            created[0] = new ExportJob(key, exportDir.resolve(jobId + ".xlsx"), ReportExportJobVO.builder()
+                .jobId(jobId)
+                .status(ReportExportJobVO.WAITING)
+                .begin(jobBegin)
+                .end(jobEnd)
+                .createTime(LocalDateTime.now())
+                .build());
+            return created[0];
+        });
+        if (created[0] == null) {
+            log.info("合并相同的报表导出任务：{}", job.getJobId());
+            return job.toVO();
+        }
+
+        jobMap.put(job.getJobId(), job);
+        try {
+            executor.execute(() -> runJob(job));
+        } catch (RejectedExecutionException e) {
+            unfinishedJobMap.remove(key, job);
+            jobMap.remove(job.getJobId());
+            throw new ReportBusinessException(MessageConstant.REPORT_EXPORT_BUSY);
+        }
+        log.info("提交报表导出任务：{},{}-{}", job.getJobId(), begin, end);
+        return job.toVO();
+    }
+
+    /**
+     * 执行导出任务,将报表写入本地文件
+     * @param job
+     */
+    private void runJob(ExportJob job) {
+        job.update(ReportExportJobVO.RUNNING, null);
+        ReportExportJobVO vo = job.toVO();
+        try (OutputStream outputStream = Files.newOutputStream(job.getFile())) {
+            reportService.writeBusinessData(vo.getBegin(), vo.getEnd(), outputStream);
+            job.update(ReportExportJobVO.SUCCESS, null);
+            log.info("报表导出任务完成：{}", job.getJobId());
+        } catch (Exception e) {
+            log.error("报表导出任务失败：{}", job.getJobId(), e);
+            deleteFile(job.getFile());
+            job.update(ReportExportJobVO.FAILED, MessageConstant.REPORT_EXPORT_FAILED);
+        } finally {
+            unfinishedJobMap.remove(job.getKey(), job);
+        }
+    }
+
+    /**
+     * 查询导出任务状态
+     *
+     * @param jobId
+     * @return
+     */
+    @Override
+    public ReportExportJobVO getJob(String jobId) {
+        return getExportJob(jobId).toVO();
+    }
+
+    /**
+     * 下载已完成的导出文件
+     *
+     * @param jobId
+     * @param response
+     */
+    @Override
+    public void download(String jobId, HttpServletResponse response) {
+        ExportJob job = getExportJob(jobId);
+        ReportExportJobVO vo = job.toVO();
+        if (!ReportExportJobVO.SUCCESS.equals(vo.getStatus())) {
+            throw new ReportBusinessException(MessageConstant.REPORT_EXPORT_JOB_NOT_FINISHED);
+        }
+        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        response.setHeader("Content-Disposition",
+            "attachment;filename=business_data_" + vo.getBegin() + "_" + vo.getEnd() + ".xlsx");
+        try {
+            response.setContentLengthLong(Files.size(job.getFile()));
+            Files.copy(job.getFile(), response.getOutputStream());
+            response.getOutputStream().flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 清理过期的导出任务和文件
+     */
+    @Override
+    public void cleanExpiredJobs() {
+        LocalDateTime expireTime = LocalDateTime.now().minusMinutes(reportProperties.getExportFileTtlMinutes());
+        jobMap.values().removeIf(job -> {
+            LocalDateTime finishTime = job.toVO().getFinishTime();
+            if (finishTime == null || finishTime.isAfter(expireTime)) {
+                return false;
+            }
+            deleteFile(job.getFile());
+            return true;
+        });
+    }
+
+    private ExportJob getExportJob(String jobId) {
+        ExportJob job = jobMap.get(jobId);
+        if (job == null) {
+            throw new ReportBusinessException(MessageConstant.REPORT_EXPORT_JOB_NOT_FOUND);
+        }
+        return job;
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除导出文件失败：{}", file, e);
+        }
+    }
+
+    /**
+     * 导出任务,状态由导出线程修改,查询线程读取副本
+     */
+    private static class ExportJob {
+        private final String key;
+        private final Path file;
+        private final ReportExportJobVO vo;
+
+        ExportJob(String key, Path file, ReportExportJobVO vo) {
+            this.key = key;
+            this.file = file;
+            this.vo = vo;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        String getJobId() {
+            return vo.getJobId();
+        }
+
+        synchronized void update(Integer status, String errorMessage) {
+            vo.setStatus(status);
+            vo.setErrorMessage(errorMessage);
+            if (ReportExportJobVO.SUCCESS.equals(status) || ReportExportJobVO.FAILED.equals(status)) {
+                vo.setFinishTime(LocalDateTime.now());
+            }
+        }
+
+        synchronized ReportExportJobVO toVO() {
+            ReportExportJobVO copy = new ReportExportJobVO();
+            BeanUtils.copyProperties(vo, copy);
+            return copy;
+        }
+    }
+}
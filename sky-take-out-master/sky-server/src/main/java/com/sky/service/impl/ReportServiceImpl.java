@@ -1,22 +1,28 @@
 package com.sky.service.impl;
 
+import com.sky.constant.MessageConstant;
+import com.sky.dto.DailyStatisticsDTO;
 import com.sky.dto.GoodsSalesDTO;
-import com.sky.entity.Orders;
+import com.sky.exception.ReportBusinessException;
 import com.sky.mapper.OrderMapper;
 import com.sky.mapper.UserMapper;
+import com.sky.properties.ReportProperties;
+import com.sky.service.BusinessStatsService;
 import com.sky.service.ReportService;
-import com.sky.service.WorkspaceService;
 import com.sky.vo.BusinessDataVO;
 import com.sky.vo.OrderReportVO;
 import com.sky.vo.SalesTop10ReportVO;
 import com.sky.vo.TurnoverReportVO;
 import com.sky.vo.UserReportVO;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +31,10 @@ import java.util.stream.Stream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFRow;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -34,12 +44,28 @@ import org.springframework.stereotype.Service;
 @Service
 public class ReportServiceImpl implements ReportService {
 
+    /**
+     * 未指定日期区间时默认导出的天数
+     */
+    public static final int EXPORT_DEFAULT_DAYS = 30;
+    /**
+     * SXSSF在内存中保留的行数,超出的行写入临时文件
+     */
+    public static final int EXPORT_ROW_ACCESS_WINDOW = 100;
+    /**
+     * 模板中明细数据的起始行和最后一列
+     */
+    private static final int EXPORT_DETAIL_FIRST_ROW = 7;
+    private static final int EXPORT_DETAIL_LAST_CELL = 6;
+
     @Autowired
     private OrderMapper orderMapper;
     @Autowired
     private UserMapper userMapper;
     @Autowired
-    private WorkspaceService workspaceService;
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private ReportProperties reportProperties;
 
     /**
      * 统计指定时间区间的营业额
@@ -52,21 +78,14 @@ public class ReportServiceImpl implements ReportService {
     public TurnoverReportVO getTurnoverStatistics(LocalDate begin, LocalDate end) {
         //计算从开始到结束日期的dateList
         List<LocalDate> dateList = getDateList(begin, end);
+        //一次查询出区间内每天的订单统计数据
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = getDailyStatistics(begin, end);
 
         List<Double> turnoverList = new ArrayList<>();
         for (LocalDate date : dateList) {
-            //获取日期开始结束具体时间
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN);
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX);
-            //查询指定时间区间的订单营业额
-            Map map = new HashMap() {{
-                put("beginTime", beginTime);
-                put("endTime", endTime);
-                put("status", Orders.COMPLETED);
-            }};
-            Double turnover = orderMapper.sumByMap(map);
-            //如果营业额为空，设置为0
-            turnover = turnover == null ? 0 : turnover;
+            DailyStatisticsDTO daily = dailyMap.get(date);
+            //当天没有订单时营业额为0
+            Double turnover = daily == null || daily.getTurnover() == null ? 0.0 : daily.getTurnover();
             turnoverList.add(turnover);
         }
         //将turnoverList和dateList转成字符串封装进VO
@@ -89,23 +108,23 @@ public class ReportServiceImpl implements ReportService {
         //计算从开始到结束日期的dateList
         List<LocalDate> dateList = getDateList(begin, end);
 
+        //查询开始日期之前的用户总量,作为累计用户量的基数
+        Map map = new HashMap() {{
+            put("endTime", LocalDateTime.of(begin.minusDays(1), LocalTime.MAX));
+        }};
+        Integer totalUserCount = userMapper.countByMap(map);
+        totalUserCount = totalUserCount == null ? 0 : totalUserCount;
+        //一次查询出区间内每天的新增用户数
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = getDailyStatistics(begin, end);
+
         List<Integer> totalUserList = new ArrayList<>();
         List<Integer> newUserList = new ArrayList<>();
         for (LocalDate date : dateList) {
-            //获取日期开始结束具体时间
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN);
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX);
-           //查询指定时间区间的总用户注册量
-            Map map = new HashMap() {{
-                put("endTime", endTime);
-            }};
-            Integer totalUserCount = userMapper.countByMap(map);
-            //查询指定时间区间的新用户注册量,即注册时间在指定时间区间内的用户数量
-            map.put("beginTime", beginTime);
-            Integer newUserCount = userMapper.countByMap(map);
-            //如果用户数量为空，设置为0
-            totalUserCount = totalUserCount == null ? 0 : totalUserCount;
-            newUserCount = newUserCount == null ? 0 : newUserCount;
+            DailyStatisticsDTO daily = dailyMap.get(date);
+            //当天没有新用户时新增用户数为0
+            Integer newUserCount = daily == null || daily.getNewUsers() == null ? 0 : daily.getNewUsers();
+            //累计用户量 = 之前的用户总量 + 当天新增用户数
+            totalUserCount += newUserCount;
             totalUserList.add(totalUserCount);
             newUserList.add(newUserCount);
         }
@@ -128,27 +147,19 @@ public class ReportServiceImpl implements ReportService {
     @Override
     public OrderReportVO getOrderStatistics(LocalDate begin, LocalDate end) {
         List<LocalDate> dateList = getDateList(begin, end);
-        //遍历dateList，查询每天的订单量,每天的有效订单量,订单总数,有效订单总数
+        //一次查询出区间内每天的订单量和有效订单量
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = getDailyStatistics(begin, end);
         List<Integer> orderCountList = new ArrayList<>();
         List<Integer> validOrderCountList = new ArrayList<>();
 
         for (LocalDate date : dateList) {
-            //获取日期开始结束具体时间
-            LocalDateTime beginTime = LocalDateTime.of(date, LocalTime.MIN);
-            LocalDateTime endTime = LocalDateTime.of(date, LocalTime.MAX);
-            //查询指定时间区间的订单量
-            Map map = new HashMap() {{
-                put("beginTime", beginTime);
-                put("endTime", endTime);
-            }};
-            Integer orderCount = getOrderCount(map);
-            //查询指定时间区间的有效订单量
-            map.put("status", Orders.COMPLETED);
-            Integer validOrderCount = getOrderCount(map);
+            DailyStatisticsDTO daily = dailyMap.get(date);
+            //当天没有订单时订单量和有效订单量都为0
+            Integer orderCount = daily == null || daily.getOrderCount() == null ? 0 : daily.getOrderCount();
+            Integer validOrderCount = daily == null || daily.getValidOrderCount() == null ? 0 : daily.getValidOrderCount();
             //存放每天的订单量和有效订单量
             orderCountList.add(orderCount);
             validOrderCountList.add(validOrderCount);
-
         }
         //计算总订单量和有效订单量
         Integer totalOrderCountList = orderCountList.stream().mapToInt(Integer::intValue).sum();
@@ -193,30 +204,67 @@ public class ReportServiceImpl implements ReportService {
     /**
      * 导出营业数据报表
      *
+     * @param begin
+     * @param end
      * @param response
      */
     @Override
-    public void exportBusinessData(HttpServletResponse response) {
-        /*查询近30天的营业数据
-        * 概览数据:
-        *   通过workspaceService的getBusinessData接口即可*/
-        LocalDate beginDate = LocalDate.now().minusDays(30);
-        LocalDate endDate= LocalDate.now().minusDays(1);
+    public void exportBusinessData(LocalDate begin, LocalDate end, HttpServletResponse response) {
+        //未指定日期区间时默认导出近30天的营业数据
+        if (begin == null || end == null) {
+            end = LocalDate.now().minusDays(1);
+            begin = end.minusDays(EXPORT_DEFAULT_DAYS - 1);
+        }
+        checkExportDateRange(begin, end);
+        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        response.setHeader("Content-Disposition", "attachment;filename=business_data_" + begin + "_" + end + ".xlsx");
+        try {
+            //通过输出流将excel文件直接输出到浏览器
+            ServletOutputStream outputStream = response.getOutputStream();
+            writeBusinessData(begin, end, outputStream);
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        LocalDateTime beginTime = LocalDateTime.of(beginDate, LocalTime.MIN);
-        LocalDateTime endTime = LocalDateTime.of(endDate, LocalTime.MAX);
+    /**
+     * 将指定日期区间的营业数据报表写入输出流
+     *
+     * @param begin
+     * @param end
+     * @param outputStream
+     */
+    @Override
+    public void writeBusinessData(LocalDate begin, LocalDate end, OutputStream outputStream) throws IOException {
+        //一次查询出区间内每天的营业数据,概览数据由明细数据累加得到
+        Map<LocalDate, DailyStatisticsDTO> dailyMap = getDailyStatistics(begin, end);
+        List<LocalDate> dateList = getDateList(begin, end);
 
-        //查询概览数据
-        BusinessDataVO businessDataVO = workspaceService.getBusinessData(beginTime, endTime);
+        //基于现有的模板文件创建一个新的excel文件,明细行使用SXSSF流式写入,内存中只保留固定数量的行
+        try (InputStream templateInput = this.getClass().getClassLoader().getResourceAsStream("template/运营数据报表模板.xlsx");
+             XSSFWorkbook template = new XSSFWorkbook(templateInput)) {
+            XSSFSheet templateSheet = template.getSheet("Sheet1");
+            //记录模板明细行的样式后删除模板中的明细行,之后的明细行全部由SXSSF追加
+            XSSFRow styleRow = templateSheet.getRow(EXPORT_DETAIL_FIRST_ROW);
+            float detailRowHeight = styleRow.getHeightInPoints();
+            CellStyle[] detailStyles = new CellStyle[EXPORT_DETAIL_LAST_CELL + 1];
+            for (int i = 1; i <= EXPORT_DETAIL_LAST_CELL; i++) {
+                detailStyles[i] = styleRow.getCell(i).getCellStyle();
+            }
+            for (int i = templateSheet.getLastRowNum(); i >= EXPORT_DETAIL_FIRST_ROW; i--) {
+                XSSFRow row = templateSheet.getRow(i);
+                if (row != null) {
+                    templateSheet.removeRow(row);
+                }
+            }
 
-        //基于现有的模板文件创建一个新的excel文件,并写入数据
-        try {
-            XSSFWorkbook excel = new XSSFWorkbook(this.getClass().getClassLoader().getResourceAsStream("template/运营数据报表模板.xlsx"));
-            XSSFSheet sheet = excel.getSheet("Sheet1");
             //填充时间数据
-            sheet.getRow(1).getCell(1).setCellValue("时间: " + beginDate + " 至 " + endDate);
+            templateSheet.getRow(1).getCell(1).setCellValue("时间: " + begin + " 至 " + end);
+            //查询概览数据
+            BusinessDataVO businessDataVO = businessStatsService.sumBusinessData(dailyMap.values());
             //填充第4行
-            XSSFRow row = sheet.getRow(3);
+            XSSFRow row = templateSheet.getRow(3);
             //填充营业额
             row.getCell(2).setCellValue(businessDataVO.getTurnover());
             //填充订单完成率
@@ -224,53 +272,60 @@ public class ReportServiceImpl implements ReportService {
             //填充新增用户数
             row.getCell(6).setCellValue(businessDataVO.getNewUsers());
             //填充第5行
-            row = sheet.getRow(4);
+            row = templateSheet.getRow(4);
             //填充有效订单数
             row.getCell(2).setCellValue(businessDataVO.getValidOrderCount());
             //填充平均客单价
             row.getCell(4).setCellValue(businessDataVO.getUnitPrice());
 
-            //填充明细数据
-            List<LocalDate> dateList = getDateList(beginDate, endDate);
-            for (int i = 0; i < dateList.size(); i++) {
-                LocalDate date = dateList.get(i);
-                //获取日期开始结束具体时间
-                beginTime = LocalDateTime.of(date, LocalTime.MIN);
-                endTime = LocalDateTime.of(date, LocalTime.MAX);
-                //查询指定时间区间的营业数据
-                BusinessDataVO businessData = workspaceService.getBusinessData(beginTime, endTime);
-                //填充某一行数据
-                row = sheet.getRow(7 + i);
-                //填充日期
-                row.getCell(1).setCellValue(date.toString());
-                //填充营业额
-                row.getCell(2).setCellValue(businessData.getTurnover());
-                //填充有效订单数
-                row.getCell(3).setCellValue(businessData.getValidOrderCount());
-                //填充订单完成率
-                row.getCell(4).setCellValue(businessData.getOrderCompletionRate());
-                //填充平均客单价
-                row.getCell(5).setCellValue(businessData.getUnitPrice());
-                //填充新增用户数
-                row.getCell(6).setCellValue(businessData.getNewUsers());
+            SXSSFWorkbook excel = new SXSSFWorkbook(template, EXPORT_ROW_ACCESS_WINDOW);
+            try {
+                Sheet sheet = excel.getSheet("Sheet1");
+                //填充明细数据
+                for (int i = 0; i < dateList.size(); i++) {
+                    LocalDate date = dateList.get(i);
+                    DailyStatisticsDTO daily = dailyMap.get(date);
+                    BusinessDataVO businessData = businessStatsService.sumBusinessData(
+                        daily == null ? Collections.<DailyStatisticsDTO>emptyList() : Collections.singletonList(daily));
+                    //创建某一行数据,沿用模板明细行的样式
+                    Row detailRow = sheet.createRow(EXPORT_DETAIL_FIRST_ROW + i);
+                    detailRow.setHeightInPoints(detailRowHeight);
+                    for (int j = 1; j <= EXPORT_DETAIL_LAST_CELL; j++) {
+                        detailRow.createCell(j).setCellStyle(detailStyles[j]);
+                    }
+                    //填充日期
+                    detailRow.getCell(1).setCellValue(date.toString());
+                    //填充营业额
+                    detailRow.getCell(2).setCellValue(businessData.getTurnover());
+                    //填充有效订单数
+                    detailRow.getCell(3).setCellValue(businessData.getValidOrderCount());
+                    //填充订单完成率
+                    detailRow.getCell(4).setCellValue(businessData.getOrderCompletionRate());
+                    //填充平均客单价
+                    detailRow.getCell(5).setCellValue(businessData.getUnitPrice());
+                    //填充新增用户数
+                    detailRow.getCell(6).setCellValue(businessData.getNewUsers());
+                }
+                excel.write(outputStream);
+            } finally {
+                //关闭资源并删除SXSSF产生的临时文件
+                excel.dispose();
+                excel.close();
             }
-
-
-
-
-            //通过输出流将excel文件输出到浏览器
-            ServletOutputStream outputStream = response.getOutputStream();
-            excel.write(outputStream);
-            outputStream.flush();
-            //关闭资源
-            outputStream.close();
-            excel.close();
-
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+    }
 
+    /**
+     * 校验导出的日期区间
+     *
+     * @param begin
+     * @param end
+     */
+    @Override
+    public void checkExportDateRange(LocalDate begin, LocalDate end) {
+        if (begin.isAfter(end) || ChronoUnit.DAYS.between(begin, end) + 1 > reportProperties.getExportMaxDays()) {
+            throw new ReportBusinessException(MessageConstant.REPORT_DATE_RANGE_ERROR);
+        }
     }
 
     private static List<LocalDate> getDateList(LocalDate begin, LocalDate end) {
@@ -279,9 +334,22 @@ public class ReportServiceImpl implements ReportService {
             .collect(Collectors.toList());
     }
 
-    private Integer getOrderCount(Map map){
-        Integer orderCount = orderMapper.countByMap(map);
-        orderCount = orderCount == null ? 0 : orderCount;
-        return orderCount;
+    /**
+     * 按天查询指定日期区间的营业数据,历史日期读取汇总表
+     * @param begin
+     * @param end
+     * @return 日期 -> 当天统计数据,没有数据的日期不在map中
+     */
+    private Map<LocalDate, DailyStatisticsDTO> getDailyStatistics(LocalDate begin, LocalDate end) {
+        return groupByDate(businessStatsService.getDailyStatistics(begin, end));
+    }
+
+    /**
+     * 将按天分组的统计结果转成以日期为key的map,便于按dateList补齐空缺的日期
+     * @param dailyList
+     * @return
+     */
+    private static Map<LocalDate, DailyStatisticsDTO> groupByDate(List<DailyStatisticsDTO> dailyList) {
+        return dailyList.stream().collect(Collectors.toMap(DailyStatisticsDTO::getStatDate, daily -> daily));
     }
 }
@@ -6,6 +6,8 @@ import com.sky.mapper.DishMapper;
 import com.sky.mapper.OrderMapper;
 import com.sky.mapper.SetmealMapper;
 import com.sky.mapper.UserMapper;
+import com.sky.service.BusinessStatsService;
+import com.sky.service.OrderStatusCountService;
 import com.sky.service.WorkspaceService;
 import com.sky.vo.BusinessDataVO;
 import com.sky.vo.DishOverViewVO;
@@ -14,6 +16,7 @@ import com.sky.vo.SetmealOverViewVO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.HashMap;
@@ -31,6 +34,10 @@ public class WorkspaceServiceImpl implements WorkspaceService {
     private DishMapper dishMapper;
     @Autowired
     private SetmealMapper setmealMapper;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private OrderStatusCountService orderStatusCountService;
 
     /**
      * 根据时间段统计营业数据
@@ -47,6 +54,11 @@ public class WorkspaceServiceImpl implements WorkspaceService {
          * 新增用户：当日新增用户的数量
          */
 
+        //时间段是今天之前的整天时,直接累加每日营业数据汇总
+        if (isHistoryWholeDays(beginTime, endTime)) {
+            return getBusinessDataFromStats(beginTime.toLocalDate(), endTime.toLocalDate());
+        }
+
         Map map = new HashMap();
         map.put("beginTime",beginTime);
         map.put("endTime",endTime);
@@ -84,6 +96,28 @@ public class WorkspaceServiceImpl implements WorkspaceService {
                 .build();
     }
 
+    /**
+     * 根据每日营业数据汇总统计指定日期区间的营业数据
+     * @param begin
+     * @param end
+     * @return
+     */
+    private BusinessDataVO getBusinessDataFromStats(LocalDate begin, LocalDate end) {
+        return businessStatsService.sumBusinessData(businessStatsService.getDailyStatistics(begin, end));
+    }
+
+    /**
+     * 判断时间段是否从某天的开始到今天之前某天的结束
+     * @param beginTime
+     * @param endTime
+     * @return
+     */
+    private static boolean isHistoryWholeDays(LocalDateTime beginTime, LocalDateTime endTime) {
+        return beginTime.toLocalTime().equals(LocalTime.MIN)
+            && endTime.toLocalTime().equals(LocalTime.MAX)
+            && endTime.toLocalDate().isBefore(LocalDate.now());
+    }
+
 
     /**
      * 查询订单管理数据
@@ -91,28 +125,23 @@ public class WorkspaceServiceImpl implements WorkspaceService {
      * @return
      */
     public OrderOverViewVO getOrderOverView() {
-        Map map = new HashMap();
-        map.put("beginTime", LocalDateTime.now().with(LocalTime.MIN));
-        map.put("status", Orders.TO_BE_CONFIRMED);
+        //今天的订单按状态分组的订单数,读取内存中的计数
+        Map<Integer, Integer> todayCounts = orderStatusCountService.getTodayCounts();
 
         //待接单
-        Integer waitingOrders = orderMapper.countByMap(map);
+        Integer waitingOrders = todayCounts.getOrDefault(Orders.TO_BE_CONFIRMED, 0);
 
         //待派送
-        map.put("status", Orders.CONFIRMED);
-        Integer deliveredOrders = orderMapper.countByMap(map);
+        Integer deliveredOrders = todayCounts.getOrDefault(Orders.CONFIRMED, 0);
 
         //已完成
-        map.put("status", Orders.COMPLETED);
-        Integer completedOrders = orderMapper.countByMap(map);
+        Integer completedOrders = todayCounts.getOrDefault(Orders.COMPLETED, 0);
 
         //已取消
-        map.put("status", Orders.CANCELLED);
-        Integer cancelledOrders = orderMapper.countByMap(map);
+        Integer cancelledOrders = todayCounts.getOrDefault(Orders.CANCELLED, 0);
 
         //全部订单
-        map.put("status", null);
-        Integer allOrders = orderMapper.countByMap(map);
+        Integer allOrders = todayCounts.values().stream().mapToInt(Integer::intValue).sum();
 
         return OrderOverViewVO.builder()
                 .waitingOrders(waitingOrders)
@@ -0,0 +1,34 @@
+package com.sky.task;
+
+import com.sky.annotation.ScheduledLock;
+import com.sky.service.BusinessStatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Component
+@Slf4j
+public class BusinessStatsTask {
+    /**
+     * 每次对账的天数,覆盖跨天完成或取消的订单
+     */
+    public static final int RECONCILE_DAYS = 7;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+
+    /**
+     * 根据原始数据重新统计最近几天的营业数据汇总
+     */
+    @Scheduled(cron = "0 30 1 * * ?")//每天凌晨1点半执行,在处理派送中订单之后
+    @ScheduledLock("reconcileBusinessStats")
+    public void reconcileBusinessStats() {
+        log.info("营业数据汇总对账,当前时间：{}", LocalDateTime.now());
+        LocalDate end = LocalDate.now().minusDays(1);
+        LocalDate begin = end.minusDays(RECONCILE_DAYS - 1);
+        businessStatsService.reconcile(begin, end);
+    }
+}
@@ -1,13 +1,19 @@
 package com.sky.task;
 
+import com.sky.annotation.ScheduledLock;
 import com.sky.constant.MessageConstant;
+import com.sky.context.ScheduledLockContext;
 import com.sky.entity.Orders;
 import com.sky.mapper.OrderMapper;
+import com.sky.service.BusinessStatsService;
+import com.sky.service.OrderStatusCountService;
+import com.sky.service.OrderTimeoutService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -18,44 +24,104 @@ public class OrderTask {
      * 订单超时时间限制（分钟）
      */
     public static final int ORDER_TIME_OUT_MINUTES = 15;
+    //批量修改订单状态时每批的订单数
+    private static final int SWEEP_BATCH_SIZE = 1000;
     @Autowired
     private OrderMapper orderMapper;
+    @Autowired
+    private BusinessStatsService businessStatsService;
+    @Autowired
+    private OrderTimeoutService orderTimeoutService;
+    @Autowired
+    private OrderStatusCountService orderStatusCountService;
     /**
-     * 处理超时订单
+     * 兜底处理超时订单,正常情况下超时订单已经由OrderTimeoutService在超时时间到达时取消
      */
-    @Scheduled(cron = "0 * * * * ?")//每分钟执行一次
+    @Scheduled(cron = "0 */5 * * * ?")//每5分钟执行一次
+    @ScheduledLock("processTimeoutOrder")
     public void processTimeoutOrder() {
         log.info("处理超时订单,当前时间：{}", LocalDateTime.now());
-        //计算超时订单对应的下单时间
-        LocalDateTime orderTime = LocalDateTime.now().minusMinutes(ORDER_TIME_OUT_MINUTES);
-        //查询超时订单
-        List<Orders> ordersList = orderMapper.getByStatusAndOrderTimeLT(Orders.PENDING_PAYMENT, orderTime);
-        if(!ordersList.isEmpty()){
-            for (Orders orders : ordersList) {
-                orders.setStatus(Orders.CANCELLED);
-                orders.setCancelReason(MessageConstant.ORDER_TIMEOUT);
-                orders.setCancelTime(LocalDateTime.now());
-                orderMapper.update(orders);
-            }
+        //取消redis中登记的已超时订单
+        int cancelled = orderTimeoutService.sweepExpired();
+        if (cancelled > 0) {
+            log.info("取消redis中登记的超时订单{}个", cancelled);
         }
+        //取消没有登记超时时间的订单(登记时redis不可用)
+        LocalDateTime orderTime = LocalDateTime.now().minusMinutes(ORDER_TIME_OUT_MINUTES);
+        Orders orders = Orders.builder()
+            .status(Orders.CANCELLED)
+            .cancelReason(MessageConstant.ORDER_TIMEOUT)
+            .cancelTime(LocalDateTime.now())
+            .build();
+        sweep("取消超时订单", Orders.PENDING_PAYMENT, orderTime, orders);
+    }
+
+    /**
+     * 根据数据库重新统计订单状态计数,修正加减计数的偏差
+     */
+    @Scheduled(cron = "30 * * * * ?")//每分钟执行一次
+    @ScheduledLock(value = "reconcileOrderStatusCount", minHoldMillis = 10000)
+    public void reconcileOrderStatusCount() {
+        orderStatusCountService.reconcile();
     }
 
     /**
      * 处理一直处于派送中的订单
      */
     @Scheduled(cron = "0 0 1 * * ?")//每天凌晨1点执行
+    @ScheduledLock("processDeliveryOrder")
     public void processDeliveryOrder(){
         log.info("处理一直处于派送中的订单,当前时间：{}", LocalDateTime.now());
         //计算超时订单对应的下单时间(即前一天的订单)
         LocalDateTime orderTime = LocalDateTime.now().minusHours(1);
-        //查询超时订单
-        List<Orders> ordersList = orderMapper.getByStatusAndOrderTimeLT(Orders.DELIVERY_IN_PROGRESS, orderTime);
-        if(!ordersList.isEmpty()){
-            for (Orders orders : ordersList) {
-                orders.setStatus(Orders.COMPLETED);
-                orderMapper.update(orders);
+        Orders orders = Orders.builder()
+            .status(Orders.COMPLETED)
+            .build();
+        sweep("完成派送中订单", Orders.DELIVERY_IN_PROGRESS, orderTime, orders);
+    }
+
+    /**
+     * 分批修改指定状态且下单时间早于指定时间的订单状态,每批单独提交,避免长时间锁定大量行
+     * 批量修改不会逐个累加营业数据汇总,修改完成后只对涉及的今天之前的日期重新对账,
+     * 今天的营业数据查询时实时统计,汇总行由第二天的对账任务修正,避免覆盖并发累加的数据
+     * @param name 任务名称,用于打印进度
+     * @param fromStatus 修改前的状态
+     * @param orderTime
+     * @param orders 修改后的状态、取消原因和取消时间
+     * @return 修改的订单数
+     */
+    private int sweep(String name, Integer fromStatus, LocalDateTime orderTime, Orders orders) {
+        List<LocalDate> orderDates = orderMapper.getOrderDatesByStatusAndOrderTimeLT(fromStatus, orderTime);
+        if (orderDates.isEmpty()) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int batches = 0;
+        int rows;
+        do {
+            rows = orderMapper.updateStatusByStatusAndOrderTimeLT(fromStatus, orderTime, orders, SWEEP_BATCH_SIZE);
+            total += rows;
+            batches++;
+            log.info("{}：第{}批修改{}个,累计{}个,耗时{}ms", name, batches, rows, total, System.currentTimeMillis() - start);
+            //锁失效后其他实例可能已经开始执行,停止修改
+            if (!ScheduledLockContext.isHeld()) {
+                log.warn("{}：锁已失效,停止执行", name);
+                break;
             }
+        } while (rows == SWEEP_BATCH_SIZE);
+        if (total > 0) {
+            long elapsed = System.currentTimeMillis() - start;
+            log.info("{}完成：共{}个订单,{}批,耗时{}ms,{}个/秒", name, total, batches, elapsed, total * 1000L / Math.max(elapsed, 1));
+            LocalDate today = LocalDate.now();
+            for (LocalDate orderDate : orderDates) {
+                if (orderDate.isBefore(today)) {
+                    businessStatsService.reconcile(orderDate, orderDate);
+                }
+            }
+            //批量修改无法逐个加减计数,重新统计
+            orderStatusCountService.reconcile();
         }
-
+        return total;
     }
 }
@@ -0,0 +1,22 @@
+package com.sky.task;
+
+import com.sky.service.ReportExportService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class ReportExportTask {
+    @Autowired
+    private ReportExportService reportExportService;
+
+    /**
+     * 清理过期的报表导出文件
+     */
+    @Scheduled(cron = "0 */10 * * * ?")//每10分钟执行一次
+    public void cleanExpiredExportFiles() {
+        reportExportService.cleanExpiredJobs();
+    }
+}
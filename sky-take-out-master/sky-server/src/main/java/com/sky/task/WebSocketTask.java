@@ -0,0 +1,22 @@
+package com.sky.task;
+
+import com.sky.websocket.WebSocketServer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class WebSocketTask {
+    @Autowired
+    private WebSocketServer webSocketServer;
+
+    /**
+     * 断开发送消息超时的客户端
+     */
+    @Scheduled(fixedDelay = 5000)//每5秒执行一次
+    public void evictStalledClients() {
+        webSocketServer.evictStalledClients();
+    }
+}
@@ -0,0 +1,146 @@
+package com.sky.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 客户端会话,每个会话有自己的发送队列,消息逐条异步发送
+ * 队列满或者一条消息长时间发送不完的客户端会被断开,不会拖慢发送消息的线程
+ */
+@Slf4j
+public class ClientSession implements SendHandler {
+
+    private final String sid;
+    private final Session session;
+    //连接对应的员工id、角色和店铺id,建立连接时从jwt令牌中解析
+    private final Long empId;
+    private final Integer role;
+    private final Long shopId;
+    //待发送的消息
+    private final Queue<String> queue;
+    //是否有消息正在发送,同一个会话同时只能有一条异步消息在发送
+    private final AtomicBoolean sending = new AtomicBoolean();
+    //当前消息开始发送的时间,没有消息在发送时为0
+    private volatile long sendStartTime;
+    private volatile boolean closed;
+
+    public ClientSession(String sid, Session session, Long empId, Integer role, Long shopId, int queueCapacity) {
+        this.sid = sid;
+        this.session = session;
+        this.empId = empId;
+        this.role = role;
+        this.shopId = shopId;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * 将消息放入发送队列,不等待发送完成
+     * @param message
+     * @return 队列已满或会话已关闭时返回false
+     */
+    public boolean offer(String message) {
+        if (closed || !queue.offer(message)) {
+            return false;
+        }
+        sendNext();
+        return true;
+    }
+
+    /**
+     * 没有消息在发送时取出下一条消息发送
+     */
+    private void sendNext() {
+        while (!queue.isEmpty() && !closed && sending.compareAndSet(false, true)) {
+            String message = queue.poll();
+            if (message == null) {
+                //消息被其他线程取走,释放发送标记后重新检查
+                sending.set(false);
+                continue;
+            }
+            sendStartTime = System.currentTimeMillis();
+            try {
+                session.getAsyncRemote().sendText(message, this);
+            } catch (Exception e) {
+                log.warn("客户端：{}发送消息失败", sid, e);
+                onResult(new SendResult(e));
+            }
+            return;
+        }
+    }
+
+    /**
+     * 一条消息发送完成后的回调,继续发送下一条消息
+     * @param result
+     */
+    @Override
+    public void onResult(SendResult result) {
+        sendStartTime = 0;
+        sending.set(false);
+        if (!result.isOK()) {
+            log.warn("客户端：{}发送消息失败,断开连接", sid, result.getException());
+            close(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "send failed");
+            return;
+        }
+        sendNext();
+    }
+
+    /**
+     * 当前消息是否已经发送超过指定时间
+     * @param timeoutMillis
+     * @return
+     */
+    public boolean isStalled(long timeoutMillis) {
+        long startTime = sendStartTime;
+        return startTime != 0 && System.currentTimeMillis() - startTime > timeoutMillis;
+    }
+
+    /**
+     * 关闭会话并丢弃未发送的消息
+     * @param code
+     * @param reason
+     */
+    public void close(CloseReason.CloseCode code, String reason) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        try {
+            session.close(new CloseReason(code, reason));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("客户端：{}关闭连接失败", sid, e);
+        }
+    }
+
+    public String getSid() {
+        return sid;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public Long getEmpId() {
+        return empId;
+    }
+
+    public Integer getRole() {
+        return role;
+    }
+
+    public Long getShopId() {
+        return shopId;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+}
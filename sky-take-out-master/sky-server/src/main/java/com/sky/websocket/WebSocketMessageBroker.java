@@ -0,0 +1,133 @@
+package com.sky.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sky.constant.WebSocketConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket消息广播,消息先发给本实例中对应店铺的客户端,再通过redis发布给其他实例
+ * 发布的消息带上本实例的节点id,收到自己发布的消息时忽略
+ */
+@Component
+@Slf4j
+public class WebSocketMessageBroker implements MessageListener {
+
+    //每次发布最多合并的消息数
+    private static final int PUBLISH_BATCH_SIZE = 100;
+    //合并发布的时间间隔
+    private static final long PUBLISH_INTERVAL_MILLIS = 20;
+
+    @Autowired
+    private WebSocketServer webSocketServer;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    //等待发布到其他实例的消息
+    private final Queue<JSONObject> pendingMessages = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService publishExecutor;
+
+    @PostConstruct
+    public void init() {
+        publishExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "websocket-publish");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publishExecutor.scheduleWithFixedDelay(this::flush, PUBLISH_INTERVAL_MILLIS, PUBLISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        //订阅其他实例发布的消息
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(WebSocketConstant.BROADCAST_CHANNEL));
+        log.info("WebSocket消息广播节点id：{}", nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        publishExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * 向所有实例中指定店铺的客户端发送消息
+     * @param shopId
+     * @param message
+     */
+    public void sendToShop(Long shopId, String message) {
+        webSocketServer.sendToShop(shopId, message);
+        JSONObject pending = new JSONObject();
+        pending.put("shopId", shopId);
+        pending.put("content", message);
+        pendingMessages.offer(pending);
+    }
+
+    /**
+     * 将积压的消息分批发布到redis
+     */
+    private void flush() {
+        while (!pendingMessages.isEmpty()) {
+            List<JSONObject> messages = new ArrayList<>();
+            JSONObject message;
+            while (messages.size() < PUBLISH_BATCH_SIZE && (message = pendingMessages.poll()) != null) {
+                messages.add(message);
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+            JSONObject envelope = new JSONObject();
+            envelope.put("nodeId", nodeId);
+            envelope.put("messages", messages);
+            try {
+                stringRedisTemplate.convertAndSend(WebSocketConstant.BROADCAST_CHANNEL, envelope.toJSONString());
+            } catch (Exception e) {
+                //redis不可用时只影响其他实例,本实例的客户端已经收到消息
+                log.error("发布WebSocket消息失败,丢弃{}条消息", messages.size(), e);
+            }
+        }
+    }
+
+    /**
+     * 收到其他实例发布的消息,发给本实例的客户端
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject envelope;
+        try {
+            envelope = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            log.warn("无法解析WebSocket广播消息", e);
+            return;
+        }
+        if (envelope == null || nodeId.equals(envelope.getString("nodeId"))) {
+            return;
+        }
+        JSONArray messages = envelope.getJSONArray("messages");
+        for (int i = 0; i < messages.size(); i++) {
+            JSONObject pending = messages.getJSONObject(i);
+            webSocketServer.sendToShop(pending.getLong("shopId"), pending.getString("content"));
+        }
+    }
+}
@@ -1,33 +1,127 @@
 package com.sky.websocket;
 
+import com.sky.constant.JwtClaimsConstant;
+import com.sky.constant.RoleConstant;
+import com.sky.constant.ShopConstant;
+import com.sky.properties.JwtProperties;
+import com.sky.utils.JwtUtil;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+
+import javax.websocket.CloseReason;
 import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * WebSocket服务
  */
 @Component
-@ServerEndpoint("/ws/{sid}")
+@ServerEndpoint(value = "/ws/{sid}", configurator = WebSocketTokenConfigurator.class)
+@Slf4j
 public class WebSocketServer {
 
+    //每个客户端最多积压的消息数,超过后视为慢客户端并断开
+    private static final int SEND_QUEUE_CAPACITY = 100;
+    //一条消息发送超过这个时间视为慢客户端并断开
+    private static final long SEND_TIMEOUT_MILLIS = 10000;
+
     //存放会话对象
-    private static Map<String, Session> sessionMap = new HashMap();
+    private static final Map<String, ClientSession> sessionMap = new ConcurrentHashMap<>();
+    //店铺id到会话对象的索引
+    private static final Map<Long, Set<ClientSession>> shopSessionMap = new ConcurrentHashMap<>();
+
+    //每个连接都会创建新的端点对象,所以通过静态字段注入
+    private static JwtProperties jwtProperties;
+
+    //为false时兼容未携带令牌的旧客户端,按默认店铺推送
+    private static boolean requireToken;
+
+    @Autowired
+    public void setJwtProperties(JwtProperties jwtProperties) {
+        WebSocketServer.jwtProperties = jwtProperties;
+    }
+
+    @Value("${sky.websocket.require-token:false}")
+    public void setRequireToken(boolean requireToken) {
+        WebSocketServer.requireToken = requireToken;
+    }
 
     /**
      * 连接建立成功调用的方法
      */
     @OnOpen
     public void onOpen(Session session, @PathParam("sid") String sid) {
-        System.out.println("客户端：" + sid + "建立连接");
-        sessionMap.put(sid, session);
+        String token = (String) session.getUserProperties().get(WebSocketTokenConfigurator.TOKEN_PROPERTY);
+        Long empId = null;
+        Integer role = RoleConstant.ADMIN;
+        Long shopId = ShopConstant.DEFAULT_SHOP_ID;
+        if (token != null && !token.isEmpty()) {
+            Claims claims;
+            try {
+                claims = JwtUtil.parseJWT(jwtProperties.getAdminSecretKey(), token);
+            } catch (Exception e) {
+                log.warn("客户端：{}令牌校验失败,拒绝连接", sid);
+                reject(session, sid);
+                return;
+            }
+            empId = Long.valueOf(claims.get(JwtClaimsConstant.EMP_ID).toString());
+            //旧令牌中没有角色和店铺id,按管理端、默认店铺处理
+            Object roleClaim = claims.get(JwtClaimsConstant.ROLE);
+            if (roleClaim != null) {
+                role = Integer.valueOf(roleClaim.toString());
+            }
+            Object shopClaim = claims.get(JwtClaimsConstant.SHOP_ID);
+            if (shopClaim != null) {
+                shopId = Long.valueOf(shopClaim.toString());
+            }
+        } else if (requireToken) {
+            log.warn("客户端：{}未携带令牌,拒绝连接", sid);
+            reject(session, sid);
+            return;
+        }
+        log.info("客户端：{}建立连接,员工id：{},角色：{},店铺id：{}", sid, empId, role, shopId);
+
+        ClientSession clientSession = new ClientSession(sid, session, empId, role, shopId, SEND_QUEUE_CAPACITY);
+        ClientSession[] replaced = new ClientSession[1];
+        //会话和店铺索引在同一次compute中更新,同一个客户端并发连接时不会留下失效的索引
+        sessionMap.compute(sid, (k, old) -> {
+            if (old != null) {
+                unindex(old);
+                replaced[0] = old;
+            }
+            shopSessionMap.compute(clientSession.getShopId(), (id, clientSessions) -> {
+                if (clientSessions == null) {
+                    clientSessions = ConcurrentHashMap.newKeySet();
+                }
+                clientSessions.add(clientSession);
+                return clientSessions;
+            });
+            return clientSession;
+        });
+        if (replaced[0] != null) {
+            //同一个客户端重复连接时关闭旧的连接
+            replaced[0].close(CloseReason.CloseCodes.NORMAL_CLOSURE, "replaced");
+        }
+    }
+
+    private void reject(Session session, String sid) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "unauthorized"));
+        } catch (Exception e) {
+            log.debug("客户端：{}关闭连接失败", sid, e);
+        }
     }
 
     /**
@@ -37,7 +131,7 @@ public class WebSocketServer {
      */
     @OnMessage
     public void onMessage(String message, @PathParam("sid") String sid) {
-        System.out.println("收到来自客户端：" + sid + "的信息:" + message);
+        log.info("收到来自客户端：{}的信息:{}", sid, message);
     }
 
     /**
@@ -46,26 +140,100 @@ public class WebSocketServer {
      * @param sid
      */
     @OnClose
-    public void onClose(@PathParam("sid") String sid) {
-        System.out.println("连接断开:" + sid);
-        sessionMap.remove(sid);
+    public void onClose(Session session, @PathParam("sid") String sid) {
+        log.info("连接断开:{}", sid);
+        remove(sid, session);
+    }
+
+    /**
+     * 连接出错调用的方法
+     *
+     * @param sid
+     */
+    @OnError
+    public void onError(Session session, @PathParam("sid") String sid, Throwable error) {
+        log.warn("客户端：{}连接异常", sid, error);
+        remove(sid, session);
     }
 
     /**
-     * 群发
+     * 群发,消息只放入各客户端的发送队列,不等待发送完成
      *
      * @param message
      */
     public void sendToAllClient(String message) {
-        Collection<Session> sessions = sessionMap.values();
-        for (Session session : sessions) {
-            try {
-                //服务器向客户端发送消息
-                session.getBasicRemote().sendText(message);
-            } catch (Exception e) {
-                e.printStackTrace();
+        send(sessionMap.values(), message);
+    }
+
+    /**
+     * 向指定店铺的客户端发送消息,消息只放入发送队列,不等待发送完成
+     *
+     * @param shopId
+     * @param message
+     */
+    public void sendToShop(Long shopId, String message) {
+        Set<ClientSession> clientSessions = shopSessionMap.get(shopId);
+        if (clientSessions != null) {
+            send(clientSessions, message);
+        }
+    }
+
+    private void send(Collection<ClientSession> clientSessions, String message) {
+        for (ClientSession clientSession : clientSessions) {
+            if (!clientSession.offer(message)) {
+                log.warn("客户端：{}积压消息过多,断开连接", clientSession.getSid());
+                evict(clientSession, "send queue full");
             }
         }
     }
 
+    /**
+     * 断开消息长时间发送不完的客户端
+     */
+    public void evictStalledClients() {
+        for (ClientSession clientSession : sessionMap.values()) {
+            if (clientSession.isStalled(SEND_TIMEOUT_MILLIS)) {
+                log.warn("客户端：{}发送消息超时,断开连接", clientSession.getSid());
+                evict(clientSession, "send timeout");
+            }
+        }
+    }
+
+    /**
+     * 当前连接数
+     * @return
+     */
+    public int getSessionCount() {
+        return sessionMap.size();
+    }
+
+    private void evict(ClientSession clientSession, String reason) {
+        sessionMap.computeIfPresent(clientSession.getSid(), (sid, current) -> {
+            if (current != clientSession) {
+                return current;
+            }
+            unindex(current);
+            return null;
+        });
+        clientSession.close(CloseReason.CloseCodes.TRY_AGAIN_LATER, reason);
+    }
+
+    private void remove(String sid, Session session) {
+        //只移除当前连接,避免误删同一个客户端重新建立的连接
+        sessionMap.computeIfPresent(sid, (k, current) -> {
+            if (current.getSession() != session) {
+                return current;
+            }
+            unindex(current);
+            return null;
+        });
+    }
+
+    private void unindex(ClientSession clientSession) {
+        shopSessionMap.computeIfPresent(clientSession.getShopId(), (shopId, clientSessions) -> {
+            clientSessions.remove(clientSession);
+            return clientSessions.isEmpty() ? null : clientSessions;
+        });
+    }
+
 }
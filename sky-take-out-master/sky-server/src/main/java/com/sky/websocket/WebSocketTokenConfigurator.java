@@ -0,0 +1,35 @@
+package com.sky.websocket;
+
+import javax.websocket.HandshakeResponse;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.List;
+
+/**
+ * WebSocket握手配置
+ * 浏览器建立WebSocket连接时无法设置请求头,令牌通过子协议(Sec-WebSocket-Protocol)传递,
+ * 不放在请求参数中,避免令牌被记录到访问日志
+ */
+public class WebSocketTokenConfigurator extends ServerEndpointConfig.Configurator {
+
+    //握手时取出的令牌在会话属性中的key
+    public static final String TOKEN_PROPERTY = "token";
+
+    private static final String PROTOCOL_HEADER = "Sec-WebSocket-Protocol";
+
+    @Override
+    public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse response) {
+        List<String> protocols = request.getHeaders().get(PROTOCOL_HEADER);
+        if (protocols != null && !protocols.isEmpty()) {
+            sec.getUserProperties().put(TOKEN_PROPERTY, protocols.get(0).split(",")[0].trim());
+        }
+    }
+
+    /**
+     * 回应客户端请求的子协议(即令牌),否则浏览器会拒绝连接
+     */
+    @Override
+    public String getNegotiatedSubprotocol(List<String> supported, List<String> requested) {
+        return requested == null || requested.isEmpty() ? "" : requested.get(0);
+    }
+}
@@ -0,0 +1,36 @@
+-- 每日营业数据汇总表
+-- 由订单状态变化和新用户注册增量维护,每天凌晨由BusinessStatsTask按原始数据对账
+create table if not exists daily_business_stats
+(
+    stat_date        date                     not null comment '统计日期(订单按下单日期,用户按注册日期)',
+    turnover         decimal(12, 2) default 0 not null comment '营业额(已完成订单金额)',
+    total_orders     int            default 0 not null comment '订单总数',
+    valid_orders     int            default 0 not null comment '有效订单数(已完成)',
+    cancelled_orders int            default 0 not null comment '已取消订单数',
+    new_users        int            default 0 not null comment '新增用户数',
+    update_time      datetime                 null comment '更新时间',
+    primary key (stat_date)
+) comment '每日营业数据汇总';
+
+-- 根据历史订单和用户数据初始化汇总表
+insert into daily_business_stats (stat_date, turnover, total_orders, valid_orders, cancelled_orders, update_time)
+select date(order_time),
+       sum(case when status = 5 then amount else 0 end),
+       count(id),
+       sum(case when status = 5 then 1 else 0 end),
+       sum(case when status = 6 then 1 else 0 end),
+       now()
+from orders
+group by date(order_time)
+on duplicate key update turnover         = values(turnover),
+                        total_orders     = values(total_orders),
+                        valid_orders     = values(valid_orders),
+                        cancelled_orders = values(cancelled_orders),
+                        update_time      = values(update_time);
+
+insert into daily_business_stats (stat_date, new_users, update_time)
+select date(create_time), count(id), now()
+from user
+group by date(create_time)
+on duplicate key update new_users   = values(new_users),
+                        update_time = values(update_time);
@@ -0,0 +1,11 @@
+-- 订单查询索引
+-- 订单分页按 order_time desc, id desc 排序,游标分页按 (order_time, id) 定位,索引末尾隐含主键id
+
+-- 用户历史订单:user_id = ? order by order_time desc
+create index idx_orders_user_time on orders (user_id, order_time);
+
+-- 管理端按状态查询订单、订单状态统计、批量处理超时订单:status = ? and order_time < ?
+create index idx_orders_status_time on orders (status, order_time);
+
+-- 管理端不带状态的订单查询和按下单时间的营业数据统计
+create index idx_orders_order_time on orders (order_time);
@@ -0,0 +1,11 @@
+-- 订单号和手机号查询索引
+-- 订单搜索使用精确或前缀匹配,可以走索引范围扫描
+create index idx_orders_number on orders (number);
+create index idx_orders_phone on orders (phone);
+
+-- 可选:手机号尾号查询
+-- 反转后的手机号由数据库自动维护,尾号查询转换为对该列的前缀匹配
+-- 执行后将 sky.order.phone-suffix-search 设置为true
+alter table orders
+    add column phone_reversed varchar(11) generated always as (reverse(phone)) virtual comment '反转后的手机号,用于尾号查询';
+create index idx_orders_phone_reversed on orders (phone_reversed);